@@ -19,33 +19,53 @@ package fr.neamar.aloneindarkness;
 import android.content.Context;
 import android.media.MediaPlayer;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.os.Bundle;
 import android.os.Vibrator;
 import android.util.Log;
 
 import com.google.vr.sdk.audio.GvrAudioEngine;
 import com.google.vr.sdk.base.Eye;
+import com.google.vr.sdk.base.FieldOfView;
 import com.google.vr.sdk.base.GvrActivity;
 import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Random;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
-import fr.neamar.aloneindarkness.entity.Zombie;
+import fr.neamar.aloneindarkness.audio.AudioAssetRegistry;
+import fr.neamar.aloneindarkness.audio.AudioWorker;
+import fr.neamar.aloneindarkness.audio.SoundTransforms;
+import fr.neamar.aloneindarkness.audio.VoiceBudget;
+import fr.neamar.aloneindarkness.audio.GvrGameAudio;
+import fr.neamar.aloneindarkness.entity.LevelOfDetail;
 import fr.neamar.aloneindarkness.entity.ZombieLoader;
-import fr.neamar.aloneindarkness.layoutdata.WorldLayoutData;
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.gl.AndroidGl;
+import fr.neamar.aloneindarkness.gl.CommandBuffer;
+import fr.neamar.aloneindarkness.gl.Gl;
+import fr.neamar.aloneindarkness.gl.GlChecker;
+import fr.neamar.aloneindarkness.gl.GlStateCache;
+import fr.neamar.aloneindarkness.gl.ProgramCache;
+import fr.neamar.aloneindarkness.gl.TracingGl;
+import fr.neamar.aloneindarkness.math.Mat4;
+import fr.neamar.aloneindarkness.perf.FrameProfiler;
+import fr.neamar.aloneindarkness.render.FloorRenderer;
+import fr.neamar.aloneindarkness.render.RenderQueue;
+import fr.neamar.aloneindarkness.session.SessionPlayer;
+import fr.neamar.aloneindarkness.session.SessionRecorder;
+import fr.neamar.aloneindarkness.session.SessionReplay;
+import fr.neamar.aloneindarkness.sim.FrameState;
+import fr.neamar.aloneindarkness.sim.Simulation;
 
 public class DarknessActivity extends GvrActivity implements GvrView.StereoRenderer {
     public static final String TAG = "DarknessActivity";
@@ -55,11 +75,6 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
 
     public static final float CAMERA_Z = 0.01f;
 
-    // Accuracy to find a Zombie
-    public static final float YAW_LIMIT = 0.35f;
-    // Accuracy to reload
-    public static final float PITCH_LIMIT = 1.2f;
-
     public static final int COORDS_PER_VERTEX = 3;
 
     // We keep the light always position just above the user.
@@ -68,107 +83,133 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
     // Convenience vector for extracting the position from a matrix via multiplication.
     public static final float[] POS_MATRIX_MULTIPLY_VEC = {0, 0, 0, 1.0f};
 
-    public static final float MIN_MODEL_DISTANCE = 3.0f;
-    public static final float MAX_MODEL_DISTANCE = 7.0f;
-
-    public static final String HANDGUN_SOUND_FILE = "handgun/shot.wav";
-    public static final String PLAYER_DEATH_SOUND_FILE = "player/death.wav";
-    public static final String BREATHING_SOUND_FILE = "player/breath.wav";
-    public static final String SHELL_CASING_SOUND_FILE = "handgun/shell-casing-drop.wav";
-    public static final String RELOAD_SOUND_FILE = "handgun/reload-case-1.wav";
+    // Maximum number of zombies alive at the same time
+    public static final int MAX_ZOMBIES = 1024;
+    // Zombie sounds rendered at once, the others are virtual
+    public static final int MAX_ZOMBIE_VOICES = 16;
+
+    // Zombie speeds are expressed per tick
+    public static final int SIMULATION_TICKS_PER_SECOND = 60;
+    // Draw zombies between two ticks rather than where the latest tick left them
+    public static final boolean SIMULATION_INTERPOLATION = true;
+
+    // Intent extra choosing how GL errors are checked, one of GlChecker.MODE_NAMES: "tracing"
+    // checks and counts every call. glGetError stalls the GPU, by default release builds never
+    // call it during frames.
+    public static final String EXTRA_GL = "gl";
+    public static final int DEFAULT_GL_MODE = BuildConfig.DEBUG ? GlChecker.MODE_SAMPLED : GlChecker.MODE_RELEASE;
+    // Frames between two error checks in GlChecker.MODE_SAMPLED
+    public static final int GL_CHECK_INTERVAL = 60;
+
+    // Intent extra choosing how the floor grid is drawn: FLOOR_LINES (default) or FLOOR_SHADER
+    public static final String EXTRA_FLOOR = "floor";
+    // Grid as line geometry over a plain floor
+    public static final String FLOOR_LINES = "lines";
+    // Grid computed for every fragment of the floor by grid_fragment.shader
+    public static final String FLOOR_SHADER = "shader";
+
+    // Intent extra: file to record the session to, for benchmarks
+    public static final String EXTRA_RECORD = "record";
+    // Intent extra: recorded session to replay instead of playing, one recorded frame per frame
+    public static final String EXTRA_REPLAY = "replay";
+
+    // Decoded sounds kept in memory once unused, all game sounds (8 MB) fit
+    public static final long AUDIO_BUDGET_BYTES = 12 * 1024 * 1024;
+
+    // Frames taking longer than this are reported
+    public static final long FRAME_BUDGET_NANOS = 1000000000L / 60;
+
+    // Eyes are at most this far from the center of the head, in meters. Added to the bounding
+    // radius of the zombies when culling for both eyes at once.
+    public static final float EYE_CULL_MARGIN = 0.05f;
+
+    // Initial size of the recorded frame, in ints of commands and floats of uniform values. Grows
+    // with the number of batches drawn without instancing.
+    public static final int FRAME_COMMANDS_CAPACITY = 1024;
+    public static final int FRAME_VALUES_CAPACITY = 4096;
 
     private final float[] lightPosInEyeSpace = new float[4];
 
-    private FloatBuffer floorVertices;
-    private FloatBuffer floorColors;
-    private FloatBuffer floorNormals;
+    // Every call goes through the state cache, tracingGl (if any) sees what reaches the driver
+    private Gl gl;
+    private GlStateCache glState;
+    private TracingGl tracingGl;
+    private GlChecker glChecker;
+
+    private ProgramCache programCache;
+
+    // Read once, a new GL context only needs the programs to be built again
+    private String lightVertexSource;
+    private String gridFragmentSource;
+    private String gridLineVertexSource;
+    private String passthroughFragmentSource;
+    private String instancedVertexSource;
+    private String batchedVertexSource;
+
+    private RenderQueue renderQueue;
+    // The floor is timed as its recorded commands are replayed, once per eye
+    private final CommandBuffer.Marker floorBegin = new CommandBuffer.Marker() {
+        @Override
+        public void onReplay() {
+            profiler.begin(FrameProfiler.STAGE_DRAW_FLOOR);
+        }
+    };
+    private final CommandBuffer.Marker floorEnd = new CommandBuffer.Marker() {
+        @Override
+        public void onReplay() {
+            profiler.end(FrameProfiler.STAGE_DRAW_FLOOR);
+        }
+    };
+    private final RenderQueue.Renderable floorRenderable = new RenderQueue.Renderable() {
+        @Override
+        public void render(Gl gl, int param) {
+            CommandBuffer.mark(gl, floorBegin);
+            floorRenderer.render(gl, param);
+            CommandBuffer.mark(gl, floorEnd);
+        }
+    };
+
+    // Draws of the frame, recorded for the first eye and replayed for each of them
+    private CommandBuffer frameCommands;
+    private boolean frameRecorded = false;
+
+    // Frustum of the head, covering both eyes, to cull the frame once
+    private final FieldOfView cullFov = new FieldOfView();
+    private float[] cullPerspective;
+    private float[] headView;
 
-    private int floorProgram;
+    // Frames and triggers are applied and recorded holding this lock, in the order they happened
+    private final Object sessionLock = new Object();
+    private SessionRecorder sessionRecorder;
+    // When replaying, the recorded head drives the game and the live one only places the eyes
+    private SessionReplay sessionReplay;
+    private boolean replayOver = false;
+    private float[] liveHeadView;
+    private float[] eyeFromHead;
+    private float[] eyeView;
 
-    private int floorPositionParam;
-    private int floorNormalParam;
-    private int floorColorParam;
-    private int floorModelParam;
-    private int floorModelViewParam;
-    private int floorModelViewProjectionParam;
-    private int floorLightPosParam;
+    private FloorRenderer floorRenderer;
 
-    private float[] camera;
+    // Per eye scratch matrices, GL thread only
     private float[] view;
-    private float[] headView;
     private float[] modelViewProjection;
     private float[] modelView;
-    private float[] modelFloor;
-
-    private float[] tempPosition;
-    private float[] headRotation;
-
-    private float floorDepth = 20f;
+    private float[] perspective;
 
     private Vibrator vibrator;
 
     private GvrAudioEngine gvrAudioEngine;
-    private volatile int handgunSoundId = GvrAudioEngine.INVALID_ID;
+    private AudioAssetRegistry audioAssets;
+    private AudioWorker audioWorker;
+    private GvrGameAudio gameAudio;
 
     private ZombieLoader zombieLoader;
-    private Zombie zombie;
-    private int bulletsLeft = 6;
-    private int maxBullets = 6;
-    private int reloadingSoundId = GvrAudioEngine.INVALID_ID;
-
-
-    private Boolean playerIsDead = false;
-
-    private int playerBreathSoundId = GvrAudioEngine.INVALID_ID;
-    private int playerReloadingSoundId = GvrAudioEngine.INVALID_ID;
+    private Game game;
+    private Simulation simulation;
+    private FrameProfiler profiler;
 
     private MediaPlayer ambientMusicPlayer;
 
-    /**
-     * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
-     *
-     * @param type  The type of shader we will be creating.
-     * @param resId The resource ID of the raw text file about to be turned into a shader.
-     * @return The shader object handler.
-     */
-    private int loadGLShader(int type, int resId) {
-        String code = readRawTextFile(resId);
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, code);
-        GLES20.glCompileShader(shader);
-
-        // Get the compilation status.
-        final int[] compileStatus = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
-
-        // If the compilation failed, delete the shader.
-        if (compileStatus[0] == 0) {
-            Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
-            shader = 0;
-        }
-
-        if (shader == 0) {
-            throw new RuntimeException("Error creating shader.");
-        }
-
-        return shader;
-    }
-
-    /**
-     * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
-     *
-     * @param label Label to report in case of error.
-     */
-    public static void checkGLError(String label) {
-        int error;
-        //noinspection LoopStatementThatDoesntLoop
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            Log.e(TAG, label + ": glError " + error);
-            throw new RuntimeException(label + ": glError " + error);
-        }
-    }
-
     /**
      * Sets the view to our GvrView and initializes the transformation matrices we will use
      * to render our scene.
@@ -179,25 +220,107 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
 
         initializeGvrView();
 
-        camera = new float[16];
         view = new float[16];
         modelViewProjection = new float[16];
         modelView = new float[16];
-        modelFloor = new float[16];
-        tempPosition = new float[4];
-        headRotation = new float[4];
+        perspective = new float[16];
+        cullPerspective = new float[16];
         headView = new float[16];
+        liveHeadView = new float[16];
+        eyeFromHead = new float[16];
+        eyeView = new float[16];
+
         vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 
         // Initialize 3D audio engine.
         gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
+        audioAssets = new AudioAssetRegistry(gvrAudioEngine, getAssets(), AUDIO_BUDGET_BYTES);
+        audioWorker = new AudioWorker(gvrAudioEngine, audioAssets);
+        gameAudio = new GvrGameAudio(gvrAudioEngine, audioWorker, audioAssets);
+
+        int glMode = getGlMode(getIntent().getStringExtra(EXTRA_GL));
+        Gl deviceGl = GlChecker.wrap(new AndroidGl(), glMode);
+        tracingGl = deviceGl instanceof TracingGl ? (TracingGl) deviceGl : null;
+        glState = new GlStateCache(deviceGl);
+        gl = glState;
+        glChecker = new GlChecker(deviceGl, glMode, GL_CHECK_INTERVAL);
+        Log.i(TAG, "GL errors checked in " + GlChecker.MODE_NAMES[glMode] + " mode");
+        programCache = new ProgramCache(gl, new File(getCacheDir(), "programs"));
+
+        lightVertexSource = readRawTextFile(R.raw.light_vertex);
+        gridFragmentSource = readRawTextFile(R.raw.grid_fragment);
+        gridLineVertexSource = readRawTextFile(R.raw.grid_line_vertex);
+        passthroughFragmentSource = readRawTextFile(R.raw.passthrough_fragment);
+        instancedVertexSource = readRawTextFile(R.raw.instanced_vertex);
+        batchedVertexSource = readRawTextFile(R.raw.batched_vertex);
+
+        // Floor, and the zombies of each mesh in batches when instancing is not supported
+        renderQueue = new RenderQueue(1 + LevelOfDetail.MESH_COUNT + MAX_ZOMBIES / ZombieLoader.BATCH_SIZE);
+
+        // Everything that differs between the eyes, read again on every replay
+        frameCommands = new CommandBuffer(FRAME_COMMANDS_CAPACITY, FRAME_VALUES_CAPACITY);
+        frameCommands.track(view);
+        frameCommands.track(perspective);
+        frameCommands.track(lightPosInEyeSpace);
+        frameCommands.track(modelView);
+        frameCommands.track(modelViewProjection);
+
+        zombieLoader = new ZombieLoader(MAX_ZOMBIES, gl, glChecker);
+        boolean floorLines = !FLOOR_SHADER.equals(getIntent().getStringExtra(EXTRA_FLOOR));
+        floorRenderer = new FloorRenderer(floorLines, glChecker);
+
+        // A replay plays the game of the recording again
+        long seed = new Random().nextLong();
+        SessionPlayer sessionPlayer = null;
+        String replayPath = getIntent().getStringExtra(EXTRA_REPLAY);
+        if (replayPath != null) {
+            try {
+                sessionPlayer = new SessionPlayer(new FileInputStream(replayPath));
+            } catch (IOException e) {
+                throw new RuntimeException("Can't open the session " + replayPath, e);
+            }
+            seed = sessionPlayer.seed;
+            if (sessionPlayer.maxZombies != MAX_ZOMBIES || sessionPlayer.ticksPerSecond != SIMULATION_TICKS_PER_SECOND) {
+                Log.w(TAG, "Session recorded with other settings, it won't replay the same");
+            }
+        }
+
+        game = new Game(MAX_ZOMBIES, gameAudio, zombieLoader,
+                new Game.Listener() {
+                    @Override
+                    public void onZombieKilled() {
+                        Log.i(TAG, "Killing zombie");
+                        vibrator.vibrate(250);
+                    }
 
-        zombieLoader = new ZombieLoader();
+                    @Override
+                    public void onPlayerDead() {
+                        profiler.requestDump();
+                        vibrator.vibrate(new long[] {0L, 250L, 150L, 350L, 150L, 350L, 150L, 350L, 150L, 350L, 150L, 350L}, -1);
+                    }
+                }, new Random(seed));
+        game.horde.voiceBudget.setVoices(MAX_ZOMBIE_VOICES);
+
+        if (sessionPlayer != null) {
+            sessionReplay = new SessionReplay(sessionPlayer, game);
+            Log.i(TAG, "Replaying " + replayPath);
+        } else if (getIntent().getStringExtra(EXTRA_RECORD) != null) {
+            String recordPath = getIntent().getStringExtra(EXTRA_RECORD);
+            try {
+                sessionRecorder = new SessionRecorder(new FileOutputStream(recordPath), seed, MAX_ZOMBIES, SIMULATION_TICKS_PER_SECOND);
+                Log.i(TAG, "Recording to " + recordPath);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't record the session to " + recordPath, e);
+            }
+        }
 
-        // First zombie appears directly in front of user.
-        float[] modelPosition = new float[]{0.0f, 0.0f, -MAX_MODEL_DISTANCE / 2.0f};
+        // The camera never moves, only the head does.
+        float[] camera = new float[16];
+        Mat4.setLookAt(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        game.frameStates.setCamera(camera);
 
-        zombie = new Zombie(modelPosition, gvrAudioEngine, 0f);
+        profiler = new FrameProfiler(FRAME_BUDGET_NANOS);
+        simulation = new Simulation(game, profiler, SIMULATION_TICKS_PER_SECOND, SIMULATION_INTERPOLATION);
 
         // Start background sound
         ambientMusicPlayer = MediaPlayer.create(this, R.raw.background);
@@ -205,6 +328,21 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
         ambientMusicPlayer.start();
     }
 
+    /**
+     * @param extra value of {@link #EXTRA_GL}, null for the default of the build
+     */
+    private static int getGlMode(String extra) {
+        for (int mode = 0; mode < GlChecker.MODE_NAMES.length; mode++) {
+            if (GlChecker.MODE_NAMES[mode].equals(extra)) {
+                return mode;
+            }
+        }
+        if (extra != null) {
+            Log.w(TAG, "Unknown GL mode " + extra);
+        }
+        return DEFAULT_GL_MODE;
+    }
+
     public void initializeGvrView() {
         setContentView(R.layout.common_ui);
 
@@ -225,6 +363,19 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
 
     @Override
     public void onPause() {
+        simulation.stop();
+        synchronized (sessionLock) {
+            if (sessionRecorder != null) {
+                try {
+                    sessionRecorder.flush();
+                } catch (IOException e) {
+                    stopRecording(e);
+                }
+            }
+        }
+        Log.i(TAG, "Simulation ticks per frame: " + simulation.getTicksPerFrame());
+        logFrameTimes("pause");
+        Log.i(TAG, audioAssets.getReport());
         gvrAudioEngine.pause();
         ambientMusicPlayer.pause();
         super.onPause();
@@ -234,6 +385,30 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
     public void onResume() {
         super.onResume();
         gvrAudioEngine.resume();
+        // The GL thread may be in the middle of a frame
+        profiler.requestReset();
+        // A replay ticks the game itself
+        if (!game.isPlayerDead() && sessionReplay == null) {
+            simulation.start();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        synchronized (sessionLock) {
+            if (sessionRecorder != null) {
+                try {
+                    sessionRecorder.close();
+                    Log.i(TAG, "Session recorded: " + sessionRecorder.frames + " frames, " + sessionRecorder.triggers + " triggers");
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't record the session", e);
+                }
+                sessionRecorder = null;
+            }
+        }
+        gameAudio.release();
+        audioWorker.quit();
+        super.onDestroy();
     }
 
     @Override
@@ -249,68 +424,33 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
     /**
      * Creates the buffers we use to store information about the 3D world.
      * <p/>
-     * <p>OpenGL doesn't use Java arrays, but rather needs data in a format it can understand.
-     * Hence we use ByteBuffers.
+     * <p>Geometry is uploaded once into buffer objects, a new surface means a new GL context
+     * so this has to be done again every time.
      *
      * @param config The EGL configuration used when creating the surface.
      */
     @Override
     public void onSurfaceCreated(EGLConfig config) {
         Log.i(TAG, "onSurfaceCreated");
-        GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
-
-        // make a floor
-        ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COORDS.length * 4);
-        bbFloorVertices.order(ByteOrder.nativeOrder());
-        floorVertices = bbFloorVertices.asFloatBuffer();
-        floorVertices.put(WorldLayoutData.FLOOR_COORDS);
-        floorVertices.position(0);
-
-        ByteBuffer bbFloorNormals = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_NORMALS.length * 4);
-        bbFloorNormals.order(ByteOrder.nativeOrder());
-        floorNormals = bbFloorNormals.asFloatBuffer();
-        floorNormals.put(WorldLayoutData.FLOOR_NORMALS);
-        floorNormals.position(0);
-
-        ByteBuffer bbFloorColors = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COLORS.length * 4);
-        bbFloorColors.order(ByteOrder.nativeOrder());
-        floorColors = bbFloorColors.asFloatBuffer();
-        floorColors.put(WorldLayoutData.FLOOR_COLORS);
-        floorColors.position(0);
-
-        int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-        int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-        int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
-
-        zombieLoader.onSurfaceCreated(config, vertexShader, passthroughShader);
-
-        checkGLError("Cube program params");
-
-        floorProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(floorProgram, vertexShader);
-        GLES20.glAttachShader(floorProgram, gridShader);
-        GLES20.glLinkProgram(floorProgram);
-        GLES20.glUseProgram(floorProgram);
+        // New context, nothing we knew about the GL state holds.
+        glState.reset();
 
-        checkGLError("Floor program");
+        gl.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
 
-        floorModelParam = GLES20.glGetUniformLocation(floorProgram, "u_Model");
-        floorModelViewParam = GLES20.glGetUniformLocation(floorProgram, "u_MVMatrix");
-        floorModelViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_MVP");
-        floorLightPosParam = GLES20.glGetUniformLocation(floorProgram, "u_LightPos");
+        // Programs come from the disk cache when the driver supports it.
+        programCache.onContextCreated();
 
-        floorPositionParam = GLES20.glGetAttribLocation(floorProgram, "a_Position");
-        floorNormalParam = GLES20.glGetAttribLocation(floorProgram, "a_Normal");
-        floorColorParam = GLES20.glGetAttribLocation(floorProgram, "a_Color");
+        zombieLoader.onSurfaceCreated(programCache, passthroughFragmentSource, instancedVertexSource, batchedVertexSource);
+        Log.i(TAG, "GL version " + gl.glGetString(Gl.GL_VERSION) + ", instancing " + (zombieLoader.instancingSupported ? "enabled" : "emulated"));
 
-        checkGLError("Floor program params");
+        glChecker.checkAlways("Cube program params");
 
-        Matrix.setIdentityM(modelFloor, 0);
-        Matrix.translateM(modelFloor, 0, 0, -floorDepth, 0); // Floor appears below user.
-
-        zombie.updateModelPosition(gvrAudioEngine);
+        // make a floor
+        floorRenderer.onSurfaceCreated(gl, programCache, lightVertexSource, gridFragmentSource, gridLineVertexSource, passthroughFragmentSource);
+        Log.i(TAG, "Floor grid drawn with " + (floorRenderer.isDrawingLines() ? FLOOR_LINES : FLOOR_SHADER));
 
-        checkGLError("onSurfaceCreated");
+        glChecker.checkAlways("onSurfaceCreated");
+        Log.i(TAG, programCache.getReport());
     }
 
 
@@ -344,77 +484,59 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
-        if (playerIsDead) {
-            return;
-        }
+        profiler.beginFrame();
+        glChecker.beginFrame();
+        // The distortion pass of the previous frame changed the GL state.
+        glState.invalidate();
+        frameRecorded = false;
 
-        if(reloadingSoundId != GvrAudioEngine.INVALID_ID && !gvrAudioEngine.isSoundPlaying(reloadingSoundId)) {
-            reloadingSoundId = GvrAudioEngine.INVALID_ID;
-            bulletsLeft++;
-            Log.i(TAG, "Reloaded. Ammo in magazine:" + bulletsLeft);
+        if (game.isPlayerDead() || replayOver) {
+            return;
         }
 
-        // Build the camera matrix and apply it to the ModelView.
-        Matrix.setLookAtM(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
-
-        headTransform.getHeadView(headView, 0);
-
-        // Update the 3d audio engine with the most recent head rotation.
-        headTransform.getQuaternion(headRotation, 0);
-        gvrAudioEngine.setHeadRotation(
-                headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
-        // Regular update call to GVR audio engine.
-        gvrAudioEngine.update();
-
-        checkGLError("onReadyToDraw");
+        profiler.begin(FrameProfiler.STAGE_NEW_FRAME);
 
-        boolean isPlayerDead = zombie.onNewFrame(gvrAudioEngine);
+        FrameState frame = game.frameStates.beginFrame();
 
-        if (isPlayerDead) {
-            onPlayerDead(zombie);
+        float interpolation;
+        if (sessionReplay != null) {
+            headTransform.getHeadView(liveHeadView, 0);
+            if (!replayFrame(frame)) {
+                profiler.end(FrameProfiler.STAGE_NEW_FRAME);
+                return;
+            }
+            interpolation = sessionReplay.interpolation;
+        } else {
+            headTransform.getHeadView(frame.headView, 0);
+            headTransform.getQuaternion(frame.headRotation, 0);
+            frame.reloadPlaying = gameAudio.isReloadPlaying();
+            interpolation = simulation.getInterpolation();
         }
 
-        // Convert object space to camera space. Use the headView from onNewFrame.
-        Matrix.multiplyMM(modelView, 0, headView, 0, zombie.modelCube, 0);
-        Matrix.multiplyMV(tempPosition, 0, modelView, 0, POS_MATRIX_MULTIPLY_VEC, 0);
-
-        float pitch = (float) Math.atan2(tempPosition[1], -tempPosition[2]);
-
-        if(pitch > PITCH_LIMIT && reloadingSoundId == GvrAudioEngine.INVALID_ID && bulletsLeft < maxBullets) {
-            Log.e(TAG, "Starting reload");
-            new Thread(
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            gvrAudioEngine.preloadSoundFile(RELOAD_SOUND_FILE);
-                            reloadingSoundId = gvrAudioEngine.createSoundObject(RELOAD_SOUND_FILE);
-
-                            gvrAudioEngine.setSoundObjectPosition(
-                                    reloadingSoundId,0, -floorDepth / 2, 0);
-                            gvrAudioEngine.playSound(reloadingSoundId, false);
-                        }
-                    })
-                    .start();
+        synchronized (sessionLock) {
+            // Zombie instances are uploaded by zombieLoader as soon as the frame is ready.
+            game.onNewFrame(frame, interpolation);
+            if (sessionRecorder != null) {
+                try {
+                    sessionRecorder.recordFrame(frame, interpolation);
+                } catch (IOException e) {
+                    stopRecording(e);
+                }
+            }
         }
-    }
-
-    protected void onPlayerDead(final Zombie killingZombie) {
-        new Thread(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        vibrator.vibrate(new long[] {0L, 250L, 150L, 350L, 150L, 350L, 150L, 350L, 150L, 350L, 150L, 350L}, -1);
-                        gvrAudioEngine.preloadSoundFile(PLAYER_DEATH_SOUND_FILE);
-                        int deathSound = gvrAudioEngine.createSoundObject(PLAYER_DEATH_SOUND_FILE);
+        simulation.onRenderedFrame();
 
-                        gvrAudioEngine.setSoundObjectPosition(
-                                deathSound, killingZombie.modelPosition[0], killingZombie.modelPosition[1], killingZombie.modelPosition[2]);
-                        gvrAudioEngine.playSound(deathSound, false);
-                    }
-                })
-                .start();
+        // Update the 3d audio engine with the most recent head rotation.
+        profiler.begin(FrameProfiler.STAGE_AUDIO_UPDATE);
+        gvrAudioEngine.setHeadRotation(
+                frame.headRotation[0], frame.headRotation[1], frame.headRotation[2], frame.headRotation[3]);
+        // Zombie sounds that moved enough since the last frame, then regular update call to GVR audio engine.
+        gameAudio.flushTransforms();
+        gvrAudioEngine.update();
+        profiler.end(FrameProfiler.STAGE_AUDIO_UPDATE);
 
-        playerIsDead = true;
+        glChecker.check("onReadyToDraw");
+        profiler.end(FrameProfiler.STAGE_NEW_FRAME);
     }
 
     /**
@@ -424,186 +546,182 @@ public class DarknessActivity extends GvrActivity implements GvrView.StereoRende
      */
     @Override
     public void onDrawEye(Eye eye) {
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        profiler.begin(FrameProfiler.STAGE_DRAW_EYE);
+        gl.glEnable(GLES20.GL_DEPTH_TEST);
+        gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+
+        glChecker.check("colorParam");
 
-        checkGLError("colorParam");
+        FrameState frame = game.frameStates.front();
 
         // Apply the eye transformation to the camera.
-        Matrix.multiplyMM(view, 0, eye.getEyeView(), 0, camera, 0);
+        if (sessionReplay != null) {
+            // The eye as seen from the live head, moved to the recorded one
+            Mat4.invertRigid(eyeView, 0, liveHeadView, 0);
+            Mat4.multiply(eyeFromHead, 0, eye.getEyeView(), 0, eyeView, 0);
+            Mat4.multiply(eyeView, 0, eyeFromHead, 0, frame.headView, 0);
+            Mat4.multiply(view, 0, eyeView, 0, frame.camera, 0);
+        } else {
+            Mat4.multiply(view, 0, eye.getEyeView(), 0, frame.camera, 0);
+        }
 
         // Set the position of the light
-        Matrix.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
-
-        // Build the ModelView and ModelViewProjection matrices
-        // for calculating cube position and light.
-        float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
-        Matrix.multiplyMM(modelView, 0, view, 0, zombie.modelCube, 0);
-        Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+        Mat4.transform(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
 
-        zombie.drawZombie(zombieLoader, lightPosInEyeSpace, modelView, modelViewProjection, isLookingAtObject());
+        // Written in place, Eye.getPerspective() may return a new array on every call.
+        eye.getFov().toPerspectiveMatrix(Z_NEAR, Z_FAR, perspective, 0);
 
         // Set modelView for the floor, so we draw floor in the correct location
-        Matrix.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
-        Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-        drawFloor();
-    }
+        Mat4.modelViewProjection(modelViewProjection, 0, modelView, 0, perspective, 0, view, 0, floorRenderer.model, 0);
 
-    @Override
-    public void onFinishFrame(Viewport viewport) {
+        if (!frameRecorded) {
+            recordFrame(frame, eye.getFov(), eye.getViewport().width);
+        }
+        // The matrices above are read by the replay, they are the only difference between the eyes.
+        frameCommands.replay(gl);
+        profiler.end(FrameProfiler.STAGE_DRAW_EYE);
     }
 
     /**
-     * Draw the floor.
+     * Record the draw commands of the frame into frameCommands, for both eyes.
      * <p/>
-     * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
-     * position of the light, so if we rewrite our code to draw the floor first, the lighting might
-     * look strange.
+     * <p>Zombies are culled with the frustum of the head, wide enough for both eyes: they have
+     * mirrored fields of view, and are at most {@link #EYE_CULL_MARGIN} away from the head.
      */
-    public void drawFloor() {
-        GLES20.glUseProgram(floorProgram);
-
-        // Set ModelView, MVP, position, normals, and color.
-        GLES20.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
-        GLES20.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
-        GLES20.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
-        GLES20.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
-        GLES20.glVertexAttribPointer(
-                floorPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, floorVertices);
-        GLES20.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0, floorNormals);
-        GLES20.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
-
-        GLES20.glEnableVertexAttribArray(floorPositionParam);
-        GLES20.glEnableVertexAttribArray(floorNormalParam);
-        GLES20.glEnableVertexAttribArray(floorColorParam);
-
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 24);
-
-        checkGLError("drawing floor");
+    private void recordFrame(FrameState frame, FieldOfView eyeFov, int viewportWidth) {
+        profiler.begin(FrameProfiler.STAGE_RECORD);
+
+        float horizontal = Math.max(eyeFov.getLeft(), eyeFov.getRight());
+        cullFov.setAngles(horizontal, horizontal, eyeFov.getBottom(), eyeFov.getTop());
+        cullFov.toPerspectiveMatrix(Z_NEAR, Z_FAR, cullPerspective, 0);
+        Mat4.multiply(headView, 0, frame.headView, 0, frame.camera, 0);
+
+        // The zombies in sight, their instances are uploaded right away.
+        zombieLoader.cull(cullPerspective, headView, EYE_CULL_MARGIN);
+        zombieLoader.submitZombies(renderQueue, view, perspective, lightPosInEyeSpace);
+        floorRenderer.setEye(modelView, modelViewProjection, lightPosInEyeSpace);
+        floorRenderer.setViewport(perspective, viewportWidth);
+        renderQueue.submit(floorRenderable, FloorRenderer.PROGRAM_RANK, 0, Game.FLOOR_DEPTH, 0);
+
+        frameCommands.reset();
+        renderQueue.flush(frameCommands);
+        frameRecorded = true;
+
+        profiler.end(FrameProfiler.STAGE_RECORD);
     }
 
     /**
-     * Called when the Cardboard trigger is pulled.
+     * Replay the ticks and triggers leading to the next recorded frame, and set its inputs.
+     * Once the session is over, its frame times are logged and the activity finishes.
+     *
+     * @return false once the session is over.
      */
-    @Override
-    public void onCardboardTrigger() {
-        Log.i(TAG, "onCardboardTrigger");
-
-        if (bulletsLeft <= 0) {
-            Log.i(TAG, "Out of ammmo.");
-            return;
-        }
-
-        if(reloadingSoundId != GvrAudioEngine.INVALID_ID) {
-            Log.i(TAG, "Is reloading");
+    private boolean replayFrame(FrameState frame) {
+        try {
+            if (sessionReplay.nextFrame(frame)) {
+                return true;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't read the session", e);
         }
 
-        bulletsLeft--;
-
-        Log.i(TAG, "Shooting. Bullets left:" + bulletsLeft);
-
+        replayOver = true;
+        Log.i(TAG, "Replayed " + sessionReplay.frames + " frames, " + sessionReplay.triggers + " triggers, "
+                + game.getTickCount() + " ticks");
+        logFrameTimes("replay over");
+        finish();
+        return false;
+    }
 
-        if (isLookingAtObject()) {
-            Log.i(TAG, "Killing zombie");
-            hideObject();
-            vibrator.vibrate(250);
+    /**
+     * Give up recording after a write error. The session lock must be held.
+     */
+    private void stopRecording(IOException e) {
+        Log.e(TAG, "Can't record the session, recording stopped", e);
+        try {
+            sessionRecorder.close();
+        } catch (IOException ignored) {
+            // Already failing
         }
+        sessionRecorder = null;
+    }
 
-        // Avoid any delays during start-up due to decoding of sound files.
-        new Thread(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        gvrAudioEngine.preloadSoundFile(HANDGUN_SOUND_FILE);
-                        handgunSoundId = gvrAudioEngine.createSoundObject(HANDGUN_SOUND_FILE);
-
-                        gvrAudioEngine.setSoundObjectPosition(
-                                handgunSoundId, 0, -floorDepth / 2, 0);
-                        gvrAudioEngine.playSound(handgunSoundId, false);
-                    }
-                })
-                .start();
+    @Override
+    public void onFinishFrame(Viewport viewport) {
+        if (tracingGl != null) {
+            tracingGl.endFrame();
+        }
 
-        // Shell casing
-        new Thread(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        new Timer().schedule(new TimerTask() {
-                            @Override
-                            public void run() {
-                                gvrAudioEngine.preloadSoundFile(SHELL_CASING_SOUND_FILE);
-                                int shellCasingSoundId = gvrAudioEngine.createSoundObject(SHELL_CASING_SOUND_FILE);
-
-                                float x = (float) (0.1 * Math.random());
-                                float y = (float) (0.1 * Math.random());
-
-                                gvrAudioEngine.setSoundObjectPosition(
-                                        handgunSoundId, x, -floorDepth, y);
-                                gvrAudioEngine.playSound(shellCasingSoundId, false);
-                            }
-                        }, 150);
-                    }
-                })
-                .start();
+        if (profiler.endFrame()) {
+            logFrameTimes(game.isPlayerDead() ? "game over" : "slow frame");
+        }
     }
 
     /**
-     * Find a new random position for the object.
+     * Log the frame time histograms of this session, line by line so logcat does not truncate them.
      */
-    protected void hideObject() {
-        // Bye bye!
-        zombie.kill(gvrAudioEngine);
-
-        // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
-        // the object's distance from the user.
-        float angleXZ = (float) (Math.random() * 2 * Math.PI);
-        float angleY = (float) 0; // Angle in Y plane, between -40 and 40.
-        angleY = (float) Math.toRadians(angleY);
+    private void logFrameTimes(String reason) {
+        String[] lines = profiler.dump(reason).toString().split("\n");
+        for (String line : lines) {
+            Log.i(TAG, line);
+        }
 
-        float newX = (float) Math.cos(angleXZ) * MAX_MODEL_DISTANCE;
-        float newY = (float) Math.tan(angleY) * MAX_MODEL_DISTANCE;
-        float newZ = (float) Math.sin(angleXZ) * MAX_MODEL_DISTANCE;
+        if (tracingGl != null) {
+            Log.i(TAG, "GL calls in the last frame: " + tracingGl.frameCalls + ", state changes " + tracingGl.frameStateChanges
+                    + ", uniform uploads " + tracingGl.frameUniformUploads + ", draw calls " + tracingGl.frameDrawCalls);
+        }
+        Log.i(TAG, "Redundant GL calls skipped: " + glState.elidedCalls);
 
-        float[] modelPosition = new float[]{newX, newY, newZ};
-        zombie = new Zombie(modelPosition, gvrAudioEngine, 0.007f);
+        VoiceBudget voiceBudget = game.horde.voiceBudget;
+        Log.i(TAG, "Zombie voices: " + voiceBudget.realVoices + " real, " + voiceBudget.virtualSources + " virtual, "
+                + voiceBudget.promotions + " promotions, " + voiceBudget.demotions + " demotions");
+        Log.i(TAG, "Zombies drawn/culled in the last frame: " + zombieLoader.drawn + "/" + zombieLoader.culled);
+        Log.i(TAG, "Commands recorded in the last frame: " + frameCommands.commandCount + ", draw calls " + frameCommands.drawCalls);
 
-        if (!gvrAudioEngine.isSoundPlaying(playerBreathSoundId)) {
-            playerBreathSoundId = GvrAudioEngine.INVALID_ID;
+        StringBuilder tiers = new StringBuilder("Zombies by level of detail:");
+        for (int tier = 0; tier < LevelOfDetail.TIER_COUNT; tier++) {
+            tiers.append(' ').append(LevelOfDetail.TIER_NAMES[tier]).append(' ').append(game.horde.tierCounts[tier]);
         }
+        Log.i(TAG, tiers.toString());
+        Log.i(TAG, "Zombie pool: " + game.horde.poolHits + " hits, " + game.horde.poolMisses + " misses, peak " + game.horde.peakSize);
 
-        // Randomly start human breathing
-        if (Math.random() < .1 && playerBreathSoundId == GvrAudioEngine.INVALID_ID) {
-
-            new Thread(
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            gvrAudioEngine.preloadSoundFile(BREATHING_SOUND_FILE);
-                            playerBreathSoundId = gvrAudioEngine.createSoundObject(BREATHING_SOUND_FILE);
-                            gvrAudioEngine.setSoundVolume(playerBreathSoundId, 0.3f);
-
-                            gvrAudioEngine.setSoundObjectPosition(
-                                    playerBreathSoundId, 0, 0, 0);
-                            gvrAudioEngine.playSound(playerBreathSoundId, false);
-                        }
-                    })
-                    .start();
-        }
+        SoundTransforms transforms = gameAudio.transforms;
+        Log.i(TAG, "Sound transforms: " + transforms.recorded + " recorded, " + transforms.sent + " sent, "
+                + transforms.skipped + " skipped as inaudible");
     }
 
     /**
-     * Check if user is looking at object by calculating where the object is in eye-space.
-     *
-     * @return true if the user is looking at the object.
+     * Called when the Cardboard trigger is pulled.
      */
-    private boolean isLookingAtObject() {
-        // Convert object space to camera space. Use the headView from onNewFrame.
-        Matrix.multiplyMM(modelView, 0, headView, 0, zombie.modelCube, 0);
-        Matrix.multiplyMV(tempPosition, 0, modelView, 0, POS_MATRIX_MULTIPLY_VEC, 0);
+    @Override
+    public void onCardboardTrigger() {
+        Log.i(TAG, "onCardboardTrigger");
+
+        if (game.isReloading()) {
+            Log.i(TAG, "Is reloading");
+        }
 
-        float yaw = (float) Math.atan2(tempPosition[0], -tempPosition[2]);
+        if (sessionReplay != null) {
+            Log.i(TAG, "Replaying, trigger ignored");
+            return;
+        }
 
-        return Math.abs(yaw) < YAW_LIMIT;
+        boolean shot;
+        synchronized (sessionLock) {
+            shot = game.trigger();
+            if (sessionRecorder != null) {
+                try {
+                    sessionRecorder.recordTrigger(game.getLastTriggerTick());
+                } catch (IOException e) {
+                    stopRecording(e);
+                }
+            }
+        }
+
+        if (shot) {
+            Log.i(TAG, "Shooting. Bullets left:" + game.getBulletsLeft());
+        } else {
+            Log.i(TAG, "Out of ammmo.");
+        }
     }
 }
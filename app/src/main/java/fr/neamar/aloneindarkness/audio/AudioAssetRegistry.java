@@ -0,0 +1,196 @@
+package fr.neamar.aloneindarkness.audio;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import com.google.vr.sdk.audio.GvrAudioEngine;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Knows which sound files are decoded in the audio engine, so each one is decoded once.
+ * <p/>
+ * <p>Entity types (handgun, player, zombies) hold a reference on the files they play, from
+ * {@link #acquire(String[])} to {@link #release(String[])}. Referenced files are never unloaded.
+ * Once the decoded files exceed the memory budget, the least recently used unreferenced ones are.
+ * <p/>
+ * <p>Decoding is blocking, so {@link #load(String)} must only be called from the
+ * {@link AudioWorker} thread: requests for the same file are serialized there, and every request
+ * after the first is a no-op. The other methods can be called from any thread.
+ */
+public class AudioAssetRegistry {
+    public static final String TAG = "AudioAssetRegistry";
+
+    private static class Asset {
+        final String file;
+        final long bytes;
+
+        int references = 0;
+        boolean resident = false;
+        long lastUsed = 0;
+
+        Asset(String file, long bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+    }
+
+    private final GvrAudioEngine gvrAudioEngine;
+    private final AssetManager assets;
+    public final long budgetBytes;
+
+    private final Map<String, Asset> registry = new HashMap<>();
+    private long clock = 0;
+
+    private long residentBytes = 0;
+    private int loads = 0;
+    private int skippedLoads = 0;
+    private int evictions = 0;
+
+    public AudioAssetRegistry(GvrAudioEngine gvrAudioEngine, AssetManager assets, long budgetBytes) {
+        this.gvrAudioEngine = gvrAudioEngine;
+        this.assets = assets;
+        this.budgetBytes = budgetBytes;
+    }
+
+    private Asset get(String file) {
+        Asset asset = registry.get(file);
+        if (asset == null) {
+            asset = new Asset(file, sizeOf(file));
+            registry.put(file, asset);
+        }
+        return asset;
+    }
+
+    // WAV files are stored uncompressed, their size is close to the decoded size.
+    private long sizeOf(String file) {
+        try {
+            AssetFileDescriptor descriptor = assets.openFd(file);
+            long length = descriptor.getLength();
+            descriptor.close();
+            return length;
+        } catch (IOException e) {
+            Log.w(TAG, "Unknown size for " + file);
+            return 0;
+        }
+    }
+
+    /**
+     * Keep these files loaded until they are released.
+     */
+    public synchronized void acquire(String[] files) {
+        for (String file : files) {
+            Asset asset = get(file);
+            asset.references++;
+            asset.lastUsed = ++clock;
+        }
+    }
+
+    /**
+     * The files may be unloaded once nobody else references them.
+     */
+    public synchronized void release(String[] files) {
+        for (String file : files) {
+            Asset asset = get(file);
+            if (asset.references > 0) {
+                asset.references--;
+            }
+        }
+    }
+
+    /**
+     * Mark the file as just used, it will be the last one to be unloaded.
+     */
+    public synchronized void touch(String file) {
+        Asset asset = registry.get(file);
+        if (asset != null) {
+            asset.lastUsed = ++clock;
+        }
+    }
+
+    /**
+     * Decode the file if it is not already. Audio worker thread only.
+     *
+     * @return false if the engine could not decode it.
+     */
+    public boolean load(String file) {
+        synchronized (this) {
+            Asset asset = get(file);
+            asset.lastUsed = ++clock;
+            if (asset.resident) {
+                skippedLoads++;
+                return true;
+            }
+        }
+
+        // Outside of the lock, other threads only wait for the bookkeeping.
+        if (!gvrAudioEngine.preloadSoundFile(file)) {
+            Log.w(TAG, "Can't load " + file);
+            return false;
+        }
+
+        synchronized (this) {
+            Asset asset = get(file);
+            asset.resident = true;
+            residentBytes += asset.bytes;
+            loads++;
+            evictColdAssets();
+        }
+        return true;
+    }
+
+    private void evictColdAssets() {
+        while (residentBytes > budgetBytes) {
+            Asset coldest = null;
+            for (Asset asset : registry.values()) {
+                if (asset.resident && asset.references == 0 && (coldest == null || asset.lastUsed < coldest.lastUsed)) {
+                    coldest = asset;
+                }
+            }
+            if (coldest == null) {
+                // Everything resident is in use, the budget is too small.
+                return;
+            }
+
+            gvrAudioEngine.unloadSoundFile(coldest.file);
+            coldest.resident = false;
+            residentBytes -= coldest.bytes;
+            evictions++;
+        }
+    }
+
+    public synchronized boolean isResident(String file) {
+        Asset asset = registry.get(file);
+        return asset != null && asset.resident;
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized int getLoadCount() {
+        return loads;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return load counts and memory usage, for the logs.
+     */
+    public synchronized String getReport() {
+        int resident = 0;
+        for (Asset asset : registry.values()) {
+            if (asset.resident) {
+                resident++;
+            }
+        }
+        return String.format(Locale.US, "Audio assets: %d/%d resident, %.1f/%.1f MB, %d loads, %d duplicate loads skipped, %d evictions",
+                resident, registry.size(), residentBytes / 1048576f, budgetBytes / 1048576f, loads, skippedLoads, evictions);
+    }
+}
@@ -0,0 +1,127 @@
+package fr.neamar.aloneindarkness.audio;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+import com.google.vr.sdk.audio.GvrAudioEngine;
+
+import java.util.Random;
+
+/**
+ * Single long-lived thread running every blocking call to the audio engine (preloading, sound
+ * object creation), so gameplay code never waits on it nor spawns threads.
+ * <p/>
+ * <p>{@link #play(SoundEffect, float, float, float)} can be called from any thread and never
+ * blocks: it queues a pooled command object.
+ */
+public class AudioWorker implements Handler.Callback {
+    public static final String TAG = "AudioWorker";
+
+    private static final int MSG_PRELOAD = 1;
+    private static final int MSG_ARM = 2;
+    private static final int MSG_PLAY = 3;
+
+    private static final int COMMAND_POOL_SIZE = 32;
+
+    private final GvrAudioEngine gvrAudioEngine;
+    private final AudioAssetRegistry registry;
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    // Only used on the worker thread
+    private final Random random = new Random();
+
+    private final PlayCommand[] commandPool = new PlayCommand[COMMAND_POOL_SIZE];
+    private int pooledCommands = 0;
+
+    private static class PlayCommand {
+        SoundEffect effect;
+        float x;
+        float y;
+        float z;
+    }
+
+    public AudioWorker(GvrAudioEngine gvrAudioEngine, AudioAssetRegistry registry) {
+        this.gvrAudioEngine = gvrAudioEngine;
+        this.registry = registry;
+
+        for (int i = 0; i < COMMAND_POOL_SIZE; i++) {
+            commandPool[pooledCommands++] = new PlayCommand();
+        }
+
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_AUDIO);
+        thread.start();
+        handler = new Handler(thread.getLooper(), this);
+    }
+
+    /**
+     * Decode sound files in the background, for sounds not played through a {@link SoundEffect}.
+     * Files already decoded are skipped.
+     */
+    public void preload(String[] files) {
+        Message.obtain(handler, MSG_PRELOAD, files).sendToTarget();
+    }
+
+    /**
+     * Decode the files of the effect and create its voices in the background.
+     */
+    public void arm(SoundEffect effect) {
+        Message.obtain(handler, MSG_ARM, effect).sendToTarget();
+    }
+
+    public void play(SoundEffect effect, float x, float y, float z) {
+        playDelayed(effect, x, y, z, 0);
+    }
+
+    public void playDelayed(SoundEffect effect, float x, float y, float z, long delayMillis) {
+        PlayCommand command = obtainCommand();
+        command.effect = effect;
+        command.x = x;
+        command.y = y;
+        command.z = z;
+
+        effect.pending = true;
+        handler.sendMessageDelayed(Message.obtain(handler, MSG_PLAY, command), delayMillis);
+    }
+
+    public void quit() {
+        thread.quitSafely();
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_PRELOAD:
+                for (String file : (String[]) msg.obj) {
+                    registry.load(file);
+                }
+                return true;
+            case MSG_ARM:
+                ((SoundEffect) msg.obj).arm(gvrAudioEngine, registry, random);
+                return true;
+            case MSG_PLAY:
+                PlayCommand command = (PlayCommand) msg.obj;
+                command.effect.fire(gvrAudioEngine, registry, random, command.x, command.y, command.z);
+                recycleCommand(command);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized PlayCommand obtainCommand() {
+        if (pooledCommands == 0) {
+            return new PlayCommand();
+        }
+        return commandPool[--pooledCommands];
+    }
+
+    private synchronized void recycleCommand(PlayCommand command) {
+        command.effect = null;
+        if (pooledCommands < COMMAND_POOL_SIZE) {
+            commandPool[pooledCommands++] = command;
+        }
+    }
+}
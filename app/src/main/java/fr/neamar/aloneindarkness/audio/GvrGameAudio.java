@@ -0,0 +1,169 @@
+package fr.neamar.aloneindarkness.audio;
+
+import com.google.vr.sdk.audio.GvrAudioEngine;
+
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.game.GameAudio;
+
+/**
+ * Game sounds played through the GVR audio engine.
+ * <p/>
+ * <p>Zombie sounds follow their zombie and are driven directly on the engine, one-shot effects
+ * go through the {@link AudioWorker}. Zombie sound positions and volumes are batched in
+ * {@link #transforms}, and only reach the engine in {@link #flushTransforms()}.
+ */
+public class GvrGameAudio implements GameAudio {
+    public static final String HANDGUN_SOUND_FILE = "handgun/shot.wav";
+    public static final String PLAYER_DEATH_SOUND_FILE = "player/death.wav";
+    public static final String BREATHING_SOUND_FILE = "player/breath.wav";
+    public static final String SHELL_CASING_SOUND_FILE = "handgun/shell-casing-drop.wav";
+    public static final String RELOAD_SOUND_FILE = "handgun/reload-case-1.wav";
+
+    // Zombies that can scream at the same time
+    public static final int DEATH_VOICES = 4;
+
+    // Files of each entity type, referenced in the asset registry as long as the game runs
+    public static final String[] HANDGUN_SOUND_FILES = {HANDGUN_SOUND_FILE, SHELL_CASING_SOUND_FILE, RELOAD_SOUND_FILE};
+    public static final String[] PLAYER_SOUND_FILES = {BREATHING_SOUND_FILE, PLAYER_DEATH_SOUND_FILE};
+
+    private final GvrAudioEngine gvrAudioEngine;
+    private final AudioWorker audioWorker;
+    private final AudioAssetRegistry registry;
+
+    public final SoundTransforms transforms = new SoundTransforms(32,
+            SoundTransforms.DEFAULT_MIN_DISTANCE, SoundTransforms.DEFAULT_MIN_ANGLE);
+    private final SoundTransforms.Sink engineSink;
+
+    private final SoundEffect handgunSound = new SoundEffect(HANDGUN_SOUND_FILE, 3);
+    private final SoundEffect shellCasingSound = new SoundEffect(SHELL_CASING_SOUND_FILE, 3);
+    private final SoundEffect reloadSound = new SoundEffect(RELOAD_SOUND_FILE, 1);
+    private final SoundEffect playerBreathSound = new SoundEffect(new String[]{BREATHING_SOUND_FILE}, 1, 0.3f);
+    private final SoundEffect playerDeathSound = new SoundEffect(PLAYER_DEATH_SOUND_FILE, 1);
+    private final SoundEffect zombieDeathSound = new SoundEffect(ZombieHorde.ZOMBIE_DEATH_SOUND_FILES, DEATH_VOICES, 1f);
+
+    public GvrGameAudio(GvrAudioEngine gvrAudioEngine, AudioWorker audioWorker, AudioAssetRegistry registry) {
+        this.gvrAudioEngine = gvrAudioEngine;
+        this.audioWorker = audioWorker;
+        this.registry = registry;
+
+        engineSink = new SoundTransforms.Sink() {
+            @Override
+            public void setSoundObjectPosition(int soundId, float x, float y, float z) {
+                gvrAudioEngine.setSoundObjectPosition(soundId, x, y, z);
+            }
+
+            @Override
+            public void setSoundVolume(int soundId, float volume) {
+                gvrAudioEngine.setSoundVolume(soundId, volume);
+            }
+        };
+
+        registry.acquire(HANDGUN_SOUND_FILES);
+        registry.acquire(PLAYER_SOUND_FILES);
+        registry.acquire(ZombieHorde.ZOMBIE_BREATHING_SOUND_FILES);
+        registry.acquire(ZombieHorde.ZOMBIE_WALKING_SOUND_FILES);
+        registry.acquire(ZombieHorde.ZOMBIE_DEATH_SOUND_FILES);
+
+        audioWorker.arm(handgunSound);
+        audioWorker.arm(shellCasingSound);
+        audioWorker.arm(reloadSound);
+        audioWorker.arm(playerBreathSound);
+        audioWorker.arm(playerDeathSound);
+
+        // Decode all zombie sounds once for the whole horde.
+        audioWorker.preload(ZombieHorde.ZOMBIE_BREATHING_SOUND_FILES);
+        audioWorker.preload(ZombieHorde.ZOMBIE_WALKING_SOUND_FILES);
+        audioWorker.arm(zombieDeathSound);
+    }
+
+    /**
+     * Let the registry unload the game sounds, e.g. when leaving the game.
+     */
+    public void release() {
+        registry.release(HANDGUN_SOUND_FILES);
+        registry.release(PLAYER_SOUND_FILES);
+        registry.release(ZombieHorde.ZOMBIE_BREATHING_SOUND_FILES);
+        registry.release(ZombieHorde.ZOMBIE_WALKING_SOUND_FILES);
+        registry.release(ZombieHorde.ZOMBIE_DEATH_SOUND_FILES);
+    }
+
+    /**
+     * Send the zombie sound moves of the frame to the engine. Call right before its update.
+     */
+    public void flushTransforms() {
+        transforms.flush(engineSink);
+    }
+
+    @Override
+    public int createSoundObject(String file) {
+        return gvrAudioEngine.createSoundObject(file);
+    }
+
+    @Override
+    public void setSoundObjectPosition(int soundId, float x, float y, float z) {
+        transforms.setPosition(soundId, x, y, z);
+    }
+
+    @Override
+    public void setSoundVolume(int soundId, float volume) {
+        transforms.setVolume(soundId, volume);
+    }
+
+    @Override
+    public void playSound(int soundId, boolean loopingEnabled) {
+        // Never start from where the sound object was created
+        transforms.flush(soundId, engineSink);
+        gvrAudioEngine.playSound(soundId, loopingEnabled);
+    }
+
+    @Override
+    public void stopSound(int soundId) {
+        transforms.remove(soundId);
+        gvrAudioEngine.stopSound(soundId);
+    }
+
+    @Override
+    public boolean isSoundPlaying(int soundId) {
+        return gvrAudioEngine.isSoundPlaying(soundId);
+    }
+
+    @Override
+    public void playDeathSound(float x, float y, float z) {
+        audioWorker.play(zombieDeathSound, x, y, z);
+    }
+
+    @Override
+    public void playShot(float x, float y, float z) {
+        audioWorker.play(handgunSound, x, y, z);
+    }
+
+    @Override
+    public void playShellCasing(float x, float y, float z, long delayMillis) {
+        audioWorker.playDelayed(shellCasingSound, x, y, z, delayMillis);
+    }
+
+    @Override
+    public void playReload(float x, float y, float z) {
+        audioWorker.play(reloadSound, x, y, z);
+    }
+
+    @Override
+    public boolean isReloadPlaying() {
+        return reloadSound.isPlaying(gvrAudioEngine);
+    }
+
+    @Override
+    public void playPlayerBreath() {
+        audioWorker.play(playerBreathSound, 0, 0, 0);
+    }
+
+    @Override
+    public boolean isPlayerBreathPlaying() {
+        return playerBreathSound.isPlaying(gvrAudioEngine);
+    }
+
+    @Override
+    public void playPlayerDeath(float x, float y, float z) {
+        audioWorker.play(playerDeathSound, x, y, z);
+    }
+}
@@ -0,0 +1,89 @@
+package fr.neamar.aloneindarkness.audio;
+
+import com.google.vr.sdk.audio.GvrAudioEngine;
+
+import java.util.Random;
+
+/**
+ * A one-shot sound, e.g. a gun shot, with a pool of pre-created sound objects ("voices").
+ * <p/>
+ * <p>GVR sound objects can't be replayed once they have finished, so every voice is re-armed
+ * with a fresh sound object as soon as it fires. Firing then only costs a position update and a
+ * playSound call, the decoding and object creation have already been done.
+ * <p/>
+ * <p>Only {@link #isPlaying(GvrAudioEngine)} may be called outside of the {@link AudioWorker} thread.
+ */
+public class SoundEffect {
+    // When more than one file is given, each voice picks one randomly.
+    public final String[] files;
+    public final float volume;
+
+    private final int[] voices;
+    private int nextVoice = 0;
+
+    private volatile int lastSoundId = GvrAudioEngine.INVALID_ID;
+    // Set when a play command is queued, cleared once the worker has started the sound
+    volatile boolean pending = false;
+
+    public SoundEffect(String file, int voiceCount) {
+        this(new String[]{file}, voiceCount, 1f);
+    }
+
+    public SoundEffect(String[] files, int voiceCount, float volume) {
+        this.files = files;
+        this.volume = volume;
+
+        voices = new int[voiceCount];
+        for (int i = 0; i < voiceCount; i++) {
+            voices[i] = GvrAudioEngine.INVALID_ID;
+        }
+    }
+
+    /**
+     * @return true if the effect is about to play, or if its last sound is still playing.
+     */
+    public boolean isPlaying(GvrAudioEngine gvrAudioEngine) {
+        return pending || gvrAudioEngine.isSoundPlaying(lastSoundId);
+    }
+
+    void arm(GvrAudioEngine gvrAudioEngine, AudioAssetRegistry registry, Random random) {
+        for (String file : files) {
+            registry.load(file);
+        }
+
+        for (int i = 0; i < voices.length; i++) {
+            if (voices[i] == GvrAudioEngine.INVALID_ID) {
+                voices[i] = createVoice(gvrAudioEngine, registry, random);
+            }
+        }
+    }
+
+    void fire(GvrAudioEngine gvrAudioEngine, AudioAssetRegistry registry, Random random, float x, float y, float z) {
+        int voice = nextVoice;
+        nextVoice = (nextVoice + 1) % voices.length;
+
+        int soundId = voices[voice];
+        if (soundId == GvrAudioEngine.INVALID_ID) {
+            // Arming failed earlier (e.g. file not decoded yet), try again now
+            soundId = createVoice(gvrAudioEngine, registry, random);
+        }
+
+        if (soundId != GvrAudioEngine.INVALID_ID) {
+            gvrAudioEngine.setSoundVolume(soundId, volume);
+            gvrAudioEngine.setSoundObjectPosition(soundId, x, y, z);
+            gvrAudioEngine.playSound(soundId, false);
+        }
+
+        lastSoundId = soundId;
+        pending = false;
+
+        // Get ready for the next shot
+        voices[voice] = createVoice(gvrAudioEngine, registry, random);
+    }
+
+    private int createVoice(GvrAudioEngine gvrAudioEngine, AudioAssetRegistry registry, Random random) {
+        String file = files.length == 1 ? files[0] : files[random.nextInt(files.length)];
+        registry.touch(file);
+        return gvrAudioEngine.createSoundObject(file);
+    }
+}
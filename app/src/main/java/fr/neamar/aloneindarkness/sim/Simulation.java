@@ -0,0 +1,130 @@
+package fr.neamar.aloneindarkness.sim;
+
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.perf.FrameProfiler;
+
+/**
+ * Ticks the game at a fixed rate on its own thread, independently of the frame rate.
+ * <p/>
+ * <p>The renderer never waits for the simulation: it asks for {@link #getInterpolation()} and
+ * draws zombies between their previous and current tick positions.
+ */
+public class Simulation implements Runnable {
+    public static final String TAG = "Simulation";
+
+    // After a long stall (e.g. GC), drop ticks instead of fast forwarding the game.
+    public static final int MAX_CATCH_UP_TICKS = 5;
+
+    private final Game game;
+    private final FrameProfiler profiler;
+
+    public final int ticksPerSecond;
+    public final boolean interpolate;
+    private final long tickNanos;
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    private volatile long lastTickNanos;
+    private volatile long tickCount = 0;
+
+    // Rendering side metrics
+    private long tickCountAtLastFrame = 0;
+    private float ticksPerFrame = 0;
+
+    public Simulation(Game game, FrameProfiler profiler, int ticksPerSecond, boolean interpolate) {
+        this.game = game;
+        this.profiler = profiler;
+        this.ticksPerSecond = ticksPerSecond;
+        this.interpolate = interpolate;
+
+        tickNanos = 1000000000L / ticksPerSecond;
+        lastTickNanos = System.nanoTime();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        thread = new Thread(this, TAG);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime();
+        lastTickNanos = nextTick;
+
+        while (running) {
+            long now = System.nanoTime();
+            if (now < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+                continue;
+            }
+
+            if (now - nextTick > MAX_CATCH_UP_TICKS * tickNanos) {
+                Log.w(TAG, "Simulation is late, skipping ticks");
+                nextTick = now;
+            }
+
+            long tickStart = System.nanoTime();
+            boolean playerDied = game.tick();
+            profiler.recordSimulationTick(System.nanoTime() - tickStart);
+            tickCount++;
+            if (playerDied) {
+                // Game over, zombies stop where they are.
+                running = false;
+            }
+
+            lastTickNanos = nextTick;
+            nextTick += tickNanos;
+        }
+    }
+
+    /**
+     * @return how far we are between the last two ticks, from 0 (previous) to 1 (latest).
+     */
+    public float getInterpolation() {
+        if (!interpolate) {
+            return 1f;
+        }
+
+        float alpha = (float) (System.nanoTime() - lastTickNanos) / tickNanos;
+        return Math.max(0f, Math.min(1f, alpha));
+    }
+
+    /**
+     * To be called by the renderer once per frame, to keep {@link #getTicksPerFrame()} updated.
+     */
+    public void onRenderedFrame() {
+        long ticks = tickCount;
+        // Smoothed over the last few dozens frames
+        ticksPerFrame += ((ticks - tickCountAtLastFrame) - ticksPerFrame) * 0.05f;
+        tickCountAtLastFrame = ticks;
+    }
+
+    /**
+     * @return average number of simulation ticks between two rendered frames.
+     */
+    public float getTicksPerFrame() {
+        return ticksPerFrame;
+    }
+}
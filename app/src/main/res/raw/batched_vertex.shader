@@ -0,0 +1,31 @@
+uniform mat4 u_View;
+uniform mat4 u_Projection;
+uniform vec3 u_LightPos;
+uniform vec4 u_FoundColor;
+
+// Array sizes must match ZombieLoader.BATCH_SIZE
+uniform mat4 u_Models[20];
+uniform float u_Found[20];
+
+attribute vec4 a_Position;
+attribute vec4 a_Color;
+attribute vec3 a_Normal;
+attribute float a_InstanceIndex;
+
+varying vec4 v_Color;
+
+void main() {
+   int instance = int(a_InstanceIndex);
+   mat4 modelView = u_View * u_Models[instance];
+
+   vec3 modelViewVertex = vec3(modelView * a_Position);
+   vec3 modelViewNormal = vec3(modelView * vec4(a_Normal, 0.0));
+
+   float distance = length(u_LightPos - modelViewVertex);
+   vec3 lightVector = normalize(u_LightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
+
+   diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   v_Color = mix(a_Color, u_FoundColor, u_Found[instance]) * diffuse;
+   gl_Position = u_Projection * modelView * a_Position;
+}
@@ -0,0 +1,45 @@
+uniform mat4 u_MVP;
+uniform mat4 u_MVMatrix;
+uniform vec3 u_LightPos;
+// Pixels per unit at a depth of 1, over the width of the line in pixels
+uniform float u_LineScale;
+
+attribute vec4 a_Position;
+attribute vec4 a_Color;
+// Across the line, on the floor
+attribute vec3 a_Normal;
+
+varying vec4 v_Color;
+
+void main() {
+   vec3 modelViewVertex = vec3(u_MVMatrix * a_Position);
+   // Lit as the floor, facing up
+   vec3 modelViewNormal = vec3(u_MVMatrix * vec4(0.0, 1.0, 0.0, 0.0));
+
+   float distance = length(u_LightPos - modelViewVertex);
+   vec3 lightVector = normalize(u_LightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
+
+   diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   gl_Position = u_MVP * a_Position;
+
+   // Fade of grid_fragment.shader, per vertex: gl_FragCoord.z / gl_FragCoord.w is (z + w) / 2 in clip space.
+   float depth = 0.5 * (gl_Position.z + gl_Position.w);
+   vec4 floorColor = a_Color * diffuse;
+   vec4 lineColor = max(0.0, (90.0 - depth) / 90.0) * vec4(1.0, 1.0, 1.0, 1.0)
+           + min(1.0, depth / 90.0) * floorColor;
+
+   // Screen space derivatives of x / -z and y / -z, across and along the line
+   vec3 across = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
+   vec3 along = vec3(u_MVMatrix * vec4(-a_Normal.z, 0.0, a_Normal.x, 0.0));
+   float w = max(-modelViewVertex.z, 0.1);
+   vec2 a = (across.xy * w + modelViewVertex.xy * across.z) / (w * w);
+   vec2 b = (along.xy * w + modelViewVertex.xy * along.z) / (w * w);
+
+   // How much of the line the 0.1 wide band of grid_fragment.shader covers on screen, both
+   // measured along the axis wide lines are widened on. Over 1 where the band is wider than the
+   // line, which then gets brighter than the shader's.
+   float minor = max(max(abs(b.x), abs(b.y)), 0.000001);
+   float coverage = min(2.0, 0.1 * u_LineScale * abs(a.x * b.y - a.y * b.x) / minor);
+   v_Color = mix(floorColor, lineColor, coverage);
+}
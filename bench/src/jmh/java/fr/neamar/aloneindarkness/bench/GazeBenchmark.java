@@ -0,0 +1,73 @@
+package fr.neamar.aloneindarkness.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.game.Game;
+
+/**
+ * Finding the zombie the user is looking at, with the gaze index and with a scan of the whole
+ * horde as the game used to do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GazeBenchmark {
+    private static final int GAZE_COUNT = 1024;
+
+    // Look all around, so results don't depend on the density of a single direction
+    private final float[] gazeAngles = new float[GAZE_COUNT];
+    private int nextGaze = 0;
+
+    public GazeBenchmark() {
+        for (int i = 0; i < GAZE_COUNT; i++) {
+            gazeAngles[i] = (float) (-Math.PI + 2 * Math.PI * i / GAZE_COUNT);
+        }
+    }
+
+    private float nextGazeAngle() {
+        nextGaze = (nextGaze + 1) % GAZE_COUNT;
+        return gazeAngles[nextGaze];
+    }
+
+    @Benchmark
+    public int gazeIndex(HordeState state) {
+        return state.horde.gazeIndex.findNearest(nextGazeAngle(), Game.YAW_LIMIT, state.horde.positions);
+    }
+
+    @Benchmark
+    public int linearScan(HordeState state) {
+        float gazeAngle = nextGazeAngle();
+        ZombieHorde horde = state.horde;
+
+        int nearest = -1;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < horde.size(); i++) {
+            int p = i * ZombieHorde.POSITION_STRIDE;
+            float x = horde.positions[p];
+            float z = horde.positions[p + 2];
+
+            float delta = Math.abs((float) Math.atan2(z, x) - gazeAngle);
+            if (delta > Math.PI) {
+                delta = (float) (2 * Math.PI) - delta;
+            }
+            if (delta >= Game.YAW_LIMIT) {
+                continue;
+            }
+
+            float distance = x * x + z * z;
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+}
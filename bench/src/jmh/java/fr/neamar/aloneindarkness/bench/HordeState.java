@@ -0,0 +1,42 @@
+package fr.neamar.aloneindarkness.bench;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.headless.HeadlessAudio;
+
+/**
+ * A horde of {@link #size} zombies scattered around the player, the way the game spawns them.
+ */
+@State(Scope.Thread)
+public class HordeState {
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int size;
+
+    public ZombieHorde horde;
+    public final HeadlessAudio audio = new HeadlessAudio();
+    // Fixed seed, so every run measures the same horde
+    public final Random random = new Random(42);
+
+    @Setup
+    public void setUp() {
+        horde = new ZombieHorde(size);
+        for (int i = 0; i < size; i++) {
+            spawn(Game.MIN_MODEL_DISTANCE + random.nextFloat() * (Game.MAX_MODEL_DISTANCE - Game.MIN_MODEL_DISTANCE));
+        }
+    }
+
+    /**
+     * Spawn a zombie in a random direction, as Game.spawnZombie() does.
+     */
+    public int spawn(float distance) {
+        float angleXZ = (float) (random.nextFloat() * 2 * Math.PI);
+        return horde.spawn((float) Math.cos(angleXZ) * distance, 0f, (float) Math.sin(angleXZ) * distance, Game.ZOMBIE_SPEED, audio);
+    }
+}
@@ -0,0 +1,98 @@
+package fr.neamar.aloneindarkness.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import fr.neamar.aloneindarkness.math.Mat4;
+import fr.neamar.aloneindarkness.math.TranslationProjection;
+
+/**
+ * {@link Mat4} operations of the frame loop. That they return the very same floats as
+ * android.opengl.Matrix is checked by Mat4Test in :core, {@link TranslationProjection} is first
+ * checked against {@link Mat4#modelViewProjection}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class Mat4Benchmark {
+    private final float[] view = new float[16];
+    private final float[] projection = new float[16];
+    private final float[] model = new float[16];
+    private final float[] point = new float[]{0f, 2f, 0f, 1f};
+
+    private final float[] modelView = new float[16];
+    private final float[] modelViewProjection = new float[16];
+    private final float[] result = new float[4];
+
+    private final TranslationProjection translationProjection = new TranslationProjection();
+
+    private float x;
+    private float y;
+    private float z;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Mat4.setLookAt(view, 0, 0.03f, 0f, 0.01f, 0.5f, 0.1f, -1f, 0f, 1f, 0f);
+        for (int i = 0; i < 16; i++) {
+            projection[i] = random.nextFloat();
+        }
+        x = random.nextFloat() * 20f;
+        y = 0f;
+        z = random.nextFloat() * -20f;
+        Mat4.setTranslation(model, 0, x, y, z);
+
+        translationProjection.set(projection, 0, view, 0);
+        check("translationProjection", mat4ModelViewProjection().clone(), translationProjection());
+    }
+
+    // expected must be a copy, both sides write to the same arrays
+    private static void check(String operation, float[] expected, float[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            if (Float.floatToRawIntBits(expected[i]) != Float.floatToRawIntBits(actual[i])) {
+                throw new IllegalStateException(operation + " differs from Mat4.modelViewProjection at " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public float[] mat4Translation() {
+        Mat4.setTranslation(modelView, 0, x, y, z);
+        return modelView;
+    }
+
+    @Benchmark
+    public float[] mat4Multiply() {
+        Mat4.multiply(modelViewProjection, 0, projection, 0, view, 0);
+        return modelViewProjection;
+    }
+
+    @Benchmark
+    public float[] mat4ModelViewProjection() {
+        Mat4.modelViewProjection(modelViewProjection, 0, modelView, 0, projection, 0, view, 0, model, 0);
+        return modelViewProjection;
+    }
+
+    /**
+     * Per model cost, the shared columns being computed once per eye.
+     */
+    @Benchmark
+    public float[] translationProjection() {
+        translationProjection.project(modelViewProjection, 0, modelView, 0, model, 0);
+        return modelViewProjection;
+    }
+
+    @Benchmark
+    public float[] mat4TransformPoint() {
+        Mat4.transformPoint(result, 0, view, 0, point[0], point[1], point[2]);
+        return result;
+    }
+}
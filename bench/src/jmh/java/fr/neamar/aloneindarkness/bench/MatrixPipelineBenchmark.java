@@ -0,0 +1,103 @@
+package fr.neamar.aloneindarkness.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.math.Mat4;
+import fr.neamar.aloneindarkness.math.TranslationProjection;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * CPU side of the transform pipeline: model matrices built once per frame, then the matrices
+ * computed for each eye.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MatrixPipelineBenchmark {
+    // Same values as DarknessActivity
+    private static final float CAMERA_Z = 0.01f;
+    private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[]{0.0f, 2.0f, 0.0f, 1.0f};
+
+    private final float[] camera = new float[16];
+    private final float[] eyeView = new float[16];
+    private final float[] perspective = new float[16];
+    private final float[] view = new float[16];
+    private final float[] lightPosInEyeSpace = new float[4];
+    private final float[] modelFloor = new float[16];
+    private final float[] modelView = new float[16];
+    private final float[] modelViewProjection = new float[16];
+
+    private final TranslationProjection zombieProjection = new TranslationProjection();
+
+    private FrameState frame;
+
+    @Setup
+    public void setUp(HordeState state) {
+        Mat4.setLookAt(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        // Slightly turned head and a typical headset frustum
+        Mat4.setLookAt(eyeView, 0, 0.03f, 0f, 0f, 0.5f, 0.1f, -1f, 0f, 1f, 0f);
+        perspective(perspective, 1.7f, 0.1f, 100f);
+
+        Mat4.setTranslation(modelFloor, 0, 0, -Game.FLOOR_DEPTH, 0);
+
+        frame = new FrameState(state.size);
+    }
+
+    private static void perspective(float[] m, float f, float near, float far) {
+        Mat4.setIdentity(m, 0);
+        m[0] = f;
+        m[5] = f;
+        m[10] = (far + near) / (near - far);
+        m[11] = -1f;
+        m[14] = 2f * far * near / (near - far);
+        m[15] = 0f;
+    }
+
+    /**
+     * Interpolated model matrix of every zombie, and their copy into the frame. Once per frame.
+     */
+    @Benchmark
+    public FrameState modelMatrices(HordeState state) {
+        state.horde.updateModelCubes(0.5f);
+        frame.captureZombies(state.horde);
+        return frame;
+    }
+
+    /**
+     * Matrices computed in onDrawEye. Zombies are transformed in the vertex shader.
+     */
+    @Benchmark
+    public float[] eye() {
+        Mat4.multiply(view, 0, eyeView, 0, camera, 0);
+        Mat4.transform(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+
+        Mat4.modelViewProjection(modelViewProjection, 0, modelView, 0, perspective, 0, view, 0, modelFloor, 0);
+        return modelViewProjection;
+    }
+
+    /**
+     * Model view projection of every zombie computed on the CPU, as the game used to before
+     * instancing. Still the cost of anything needing zombies in eye space, e.g. culling.
+     */
+    @Benchmark
+    public float[] eyeWithZombieMatrices(HordeState state) {
+        eye();
+
+        ZombieHorde horde = state.horde;
+        zombieProjection.set(perspective, 0, view, 0);
+        for (int i = 0; i < horde.size(); i++) {
+            zombieProjection.project(modelViewProjection, 0, null, 0, horde.modelCubes, i * ZombieHorde.MATRIX_STRIDE);
+        }
+        return modelViewProjection;
+    }
+}
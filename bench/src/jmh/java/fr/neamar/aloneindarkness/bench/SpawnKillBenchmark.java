@@ -0,0 +1,23 @@
+package fr.neamar.aloneindarkness.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+import fr.neamar.aloneindarkness.game.Game;
+
+/**
+ * A zombie shot and replaced by a new one, as every successful trigger does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpawnKillBenchmark {
+    @Benchmark
+    public int killAndRespawn(HordeState state) {
+        state.horde.kill(state.random.nextInt(state.horde.size()), state.audio);
+        return state.spawn(Game.MAX_MODEL_DISTANCE);
+    }
+}
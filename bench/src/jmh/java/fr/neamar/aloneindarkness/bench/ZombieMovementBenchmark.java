@@ -0,0 +1,28 @@
+package fr.neamar.aloneindarkness.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+import fr.neamar.aloneindarkness.game.Game;
+
+/**
+ * One simulation tick of the whole horde.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ZombieMovementBenchmark {
+    @Benchmark
+    public int tick(HordeState state) {
+        int killingZombie = state.horde.tick(state.audio);
+        if (killingZombie != -1) {
+            // Keep the horde size steady instead of ending the game
+            state.horde.kill(killingZombie, state.audio);
+            state.spawn(Game.MAX_MODEL_DISTANCE);
+        }
+        return killingZombie;
+    }
+}
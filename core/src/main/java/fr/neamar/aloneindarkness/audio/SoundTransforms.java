@@ -0,0 +1,242 @@
+package fr.neamar.aloneindarkness.audio;
+
+/**
+ * Positions and volumes of sound objects, recorded by the game and sent to the audio engine
+ * once per frame, just before it mixes.
+ * <p/>
+ * <p>A position is only sent when the sound moved by at least {@link #minDistance}, or turned
+ * around the listener (at the origin) by at least {@link #minAngle}, since the last position
+ * sent: smaller moves can't be heard. Volumes are sent when they changed at all.
+ * <p/>
+ * <p>Sounds are found by a linear scan, there are only a few dozen with a real voice. A sound
+ * nobody updated for {@link #IDLE_FRAMES} frames is forgotten; if it comes back, it is sent
+ * as a new one. Can be called from any thread.
+ */
+public class SoundTransforms {
+    public static final float DEFAULT_MIN_DISTANCE = 0.05f;
+    public static final float DEFAULT_MIN_ANGLE = (float) Math.toRadians(1);
+    // Well beyond the slowest voice refresh, LevelOfDetail.AUDIO_DIVISORS ticks, even with more
+    // frames than ticks: a sound still playing is never forgotten between two refreshes
+    public static final int IDLE_FRAMES = 16;
+
+    /**
+     * Where the transforms are sent, i.e. the audio engine.
+     */
+    public interface Sink {
+        void setSoundObjectPosition(int soundId, float x, float y, float z);
+
+        void setSoundVolume(int soundId, float volume);
+    }
+
+    public final float minDistance;
+    public final float minAngle;
+    private final float cosMinAngle;
+
+    private int count = 0;
+    private int[] soundIds;
+    // x, y, z of each sound: last recorded, and last sent
+    private float[] positions;
+    private float[] sentPositions;
+    private float[] volumes;
+    private float[] sentVolumes;
+    private boolean[] positionsDirty;
+    private boolean[] volumesDirty;
+    // Frames since the sound was last recorded
+    private int[] idleFrames;
+
+    public long recorded = 0;
+    public long sent = 0;
+    public long skipped = 0;
+
+    public SoundTransforms(int initialCapacity, float minDistance, float minAngle) {
+        this.minDistance = minDistance;
+        this.minAngle = minAngle;
+        cosMinAngle = (float) Math.cos(minAngle);
+        allocate(initialCapacity);
+    }
+
+    private void allocate(int capacity) {
+        soundIds = grow(soundIds, capacity);
+        positions = grow(positions, capacity, 3);
+        sentPositions = grow(sentPositions, capacity, 3);
+        volumes = grow(volumes, capacity, 1);
+        sentVolumes = grow(sentVolumes, capacity, 1);
+        positionsDirty = grow(positionsDirty, capacity);
+        volumesDirty = grow(volumesDirty, capacity);
+        idleFrames = grow(idleFrames, capacity);
+    }
+
+    private int[] grow(int[] array, int length) {
+        int[] grown = new int[length];
+        if (array != null) {
+            System.arraycopy(array, 0, grown, 0, count);
+        }
+        return grown;
+    }
+
+    private float[] grow(float[] array, int capacity, int stride) {
+        float[] grown = new float[capacity * stride];
+        if (array != null) {
+            System.arraycopy(array, 0, grown, 0, count * stride);
+        }
+        return grown;
+    }
+
+    private boolean[] grow(boolean[] array, int length) {
+        boolean[] grown = new boolean[length];
+        if (array != null) {
+            System.arraycopy(array, 0, grown, 0, count);
+        }
+        return grown;
+    }
+
+    private int indexOf(int soundId) {
+        for (int i = 0; i < count; i++) {
+            if (soundIds[i] == soundId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Index of the sound, added if needed with nothing sent yet
+    private int obtain(int soundId) {
+        int i = indexOf(soundId);
+        if (i != -1) {
+            return i;
+        }
+
+        if (count == soundIds.length) {
+            allocate(count * 2);
+        }
+        i = count++;
+        soundIds[i] = soundId;
+        positions[i * 3] = positions[i * 3 + 1] = positions[i * 3 + 2] = Float.NaN;
+        sentPositions[i * 3] = sentPositions[i * 3 + 1] = sentPositions[i * 3 + 2] = Float.NaN;
+        volumes[i] = sentVolumes[i] = Float.NaN;
+        positionsDirty[i] = false;
+        volumesDirty[i] = false;
+        return i;
+    }
+
+    public synchronized void setPosition(int soundId, float x, float y, float z) {
+        int i = obtain(soundId);
+        positions[i * 3] = x;
+        positions[i * 3 + 1] = y;
+        positions[i * 3 + 2] = z;
+        positionsDirty[i] = true;
+        idleFrames[i] = 0;
+        recorded++;
+    }
+
+    public synchronized void setVolume(int soundId, float volume) {
+        int i = obtain(soundId);
+        volumes[i] = volume;
+        volumesDirty[i] = true;
+        idleFrames[i] = 0;
+        recorded++;
+    }
+
+    /**
+     * Forget the sound, e.g. once stopped. Nothing pending is sent.
+     */
+    public synchronized void remove(int soundId) {
+        int i = indexOf(soundId);
+        if (i != -1) {
+            removeAt(i);
+        }
+    }
+
+    private void removeAt(int i) {
+        int last = --count;
+        if (i == last) {
+            return;
+        }
+        soundIds[i] = soundIds[last];
+        System.arraycopy(positions, last * 3, positions, i * 3, 3);
+        System.arraycopy(sentPositions, last * 3, sentPositions, i * 3, 3);
+        volumes[i] = volumes[last];
+        sentVolumes[i] = sentVolumes[last];
+        positionsDirty[i] = positionsDirty[last];
+        volumesDirty[i] = volumesDirty[last];
+        idleFrames[i] = idleFrames[last];
+    }
+
+    /**
+     * Send everything pending for one sound now, e.g. right before it starts playing, so it never
+     * plays from a stale position.
+     */
+    public synchronized void flush(int soundId, Sink sink) {
+        int i = indexOf(soundId);
+        if (i != -1) {
+            send(i, sink, true);
+        }
+    }
+
+    /**
+     * Send the changes worth sending. Call once per frame, before the engine update.
+     */
+    public synchronized void flush(Sink sink) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (idleFrames[i]++ > IDLE_FRAMES) {
+                removeAt(i);
+            } else {
+                send(i, sink, false);
+            }
+        }
+    }
+
+    private void send(int i, Sink sink, boolean force) {
+        if (positionsDirty[i]) {
+            int p = i * 3;
+            if (force || isAudible(p)) {
+                sink.setSoundObjectPosition(soundIds[i], positions[p], positions[p + 1], positions[p + 2]);
+                System.arraycopy(positions, p, sentPositions, p, 3);
+                sent++;
+            } else {
+                skipped++;
+            }
+            positionsDirty[i] = false;
+        }
+
+        if (volumesDirty[i]) {
+            if (volumes[i] != sentVolumes[i]) {
+                sink.setSoundVolume(soundIds[i], volumes[i]);
+                sentVolumes[i] = volumes[i];
+                sent++;
+            } else {
+                skipped++;
+            }
+            volumesDirty[i] = false;
+        }
+    }
+
+    // Whether the move since the last position sent is large enough to be heard
+    private boolean isAudible(int p) {
+        float x = positions[p];
+        float y = positions[p + 1];
+        float z = positions[p + 2];
+        float sentX = sentPositions[p];
+        float sentY = sentPositions[p + 1];
+        float sentZ = sentPositions[p + 2];
+        if (sentX != sentX) {
+            // NaN, never sent
+            return true;
+        }
+
+        float dx = x - sentX;
+        float dy = y - sentY;
+        float dz = z - sentZ;
+        if (dx * dx + dy * dy + dz * dz >= minDistance * minDistance) {
+            return true;
+        }
+
+        float dot = x * sentX + y * sentY + z * sentZ;
+        float lengths = (float) Math.sqrt((x * x + y * y + z * z) * (sentX * sentX + sentY * sentY + sentZ * sentZ));
+        return lengths > 0 && dot < cosMinAngle * lengths;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+}
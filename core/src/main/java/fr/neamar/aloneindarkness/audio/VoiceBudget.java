@@ -0,0 +1,102 @@
+package fr.neamar.aloneindarkness.audio;
+
+/**
+ * How many sound sources get a real, spatialized voice in the audio engine.
+ * <p/>
+ * <p>Sources are ranked by audibility (priority and volume over squared distance to the
+ * listener): the most audible ones up to the budget are real, the others are virtual, tracked
+ * by the game but not rendered. A real source is ranked as if it was {@link #HYSTERESIS} times
+ * louder, so two sources at about the same distance don't keep swapping their voice.
+ * <p/>
+ * <p>Selection is linear in the number of sources and never allocates.
+ */
+public class VoiceBudget {
+    // Binaural rendering of a few voices is all a phone audio thread can afford
+    public static final int DEFAULT_VOICES = 16;
+    public static final float HYSTERESIS = 1.5f;
+
+    private int voices;
+    private float[] scratch;
+
+    // Last update: voices rendered, fading out ones included, and sources without a voice
+    public int realVoices = 0;
+    public int virtualSources = 0;
+    // Since creation
+    public long promotions = 0;
+    public long demotions = 0;
+
+    public VoiceBudget(int voices, int maxSources) {
+        this.voices = voices;
+        scratch = new float[maxSources];
+    }
+
+    public int getVoices() {
+        return voices;
+    }
+
+    public void setVoices(int voices) {
+        this.voices = voices;
+    }
+
+    /**
+     * @return how audible a source is for a listener at the origin.
+     */
+    public static float audibility(float x, float y, float z, float volume, float priority, boolean real) {
+        float score = priority * volume / (1 + x * x + y * y + z * z);
+        return real ? score * HYSTERESIS : score;
+    }
+
+    /**
+     * @return the lowest audibility getting a real voice. Sources scoring exactly the threshold
+     * may be more than the budget, callers stop at the budget.
+     */
+    public float threshold(float[] scores, int count) {
+        if (voices <= 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        if (count <= voices) {
+            return 0;
+        }
+
+        if (scratch.length < count) {
+            scratch = new float[count];
+        }
+        System.arraycopy(scores, 0, scratch, 0, count);
+        return select(scratch, count, voices - 1);
+    }
+
+    // k-th largest value (0 based), moving values around in the array
+    private static float select(float[] values, int count, int k) {
+        int left = 0;
+        int right = count - 1;
+        while (left < right) {
+            float pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] > pivot) {
+                    i++;
+                }
+                while (values[j] < pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    float swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+}
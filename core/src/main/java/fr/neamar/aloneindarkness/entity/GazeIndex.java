@@ -0,0 +1,148 @@
+package fr.neamar.aloneindarkness.entity;
+
+/**
+ * Zombies bucketed by their angle around the player in the XZ plane, to find what the user is
+ * looking at without testing the whole horde.
+ * <p/>
+ * <p>Each bucket is an intrusive doubly linked list of horde slots, so inserting, removing and
+ * moving a zombie are O(1) and never allocate. Angles follow the horde convention,
+ * {@code atan2(z, x)}.
+ */
+public class GazeIndex {
+    public static final int DEFAULT_BUCKET_COUNT = 64;
+
+    private static final float TWO_PI = (float) (2 * Math.PI);
+
+    private final int bucketCount;
+    private final float bucketWidth;
+
+    // First slot of each bucket, -1 when empty
+    private final int[] bucketHeads;
+
+    // Per slot
+    private final int[] buckets;
+    private final int[] next;
+    private final int[] previous;
+    private final float[] angles;
+
+    public GazeIndex(int capacity, int bucketCount) {
+        this.bucketCount = bucketCount;
+        bucketWidth = TWO_PI / bucketCount;
+
+        bucketHeads = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            bucketHeads[i] = -1;
+        }
+
+        buckets = new int[capacity];
+        next = new int[capacity];
+        previous = new int[capacity];
+        angles = new float[capacity];
+    }
+
+    private int bucketOf(float angle) {
+        int bucket = (int) Math.floor((angle + Math.PI) / bucketWidth) % bucketCount;
+        return bucket < 0 ? bucket + bucketCount : bucket;
+    }
+
+    public void insert(int slot, float angle) {
+        angles[slot] = angle;
+        link(slot, bucketOf(angle));
+    }
+
+    public void remove(int slot) {
+        unlink(slot);
+    }
+
+    /**
+     * Re-index a zombie after it moved.
+     */
+    public void update(int slot, float angle) {
+        angles[slot] = angle;
+
+        int bucket = bucketOf(angle);
+        if (bucket != buckets[slot]) {
+            unlink(slot);
+            link(slot, bucket);
+        }
+    }
+
+    /**
+     * Follow a zombie moved by {@link ZombieHorde#despawn(int)}. Slot to must have been removed.
+     */
+    public void move(int from, int to) {
+        angles[to] = angles[from];
+        buckets[to] = buckets[from];
+        next[to] = next[from];
+        previous[to] = previous[from];
+
+        if (previous[to] == -1) {
+            bucketHeads[buckets[to]] = to;
+        } else {
+            next[previous[to]] = to;
+        }
+        if (next[to] != -1) {
+            previous[next[to]] = to;
+        }
+    }
+
+    private void link(int slot, int bucket) {
+        int head = bucketHeads[bucket];
+        buckets[slot] = bucket;
+        previous[slot] = -1;
+        next[slot] = head;
+        if (head != -1) {
+            previous[head] = slot;
+        }
+        bucketHeads[bucket] = slot;
+    }
+
+    private void unlink(int slot) {
+        if (previous[slot] == -1) {
+            bucketHeads[buckets[slot]] = next[slot];
+        } else {
+            next[previous[slot]] = next[slot];
+        }
+        if (next[slot] != -1) {
+            previous[next[slot]] = previous[slot];
+        }
+    }
+
+    /**
+     * Find the closest zombie less than angleLimit away from the gaze direction.
+     *
+     * @param gazeAngle  direction the user is looking at, as atan2(z, x)
+     * @param angleLimit maximum angle between the gaze and the zombie, in radians
+     * @param positions  {@link ZombieHorde#positions}, to rank candidates by distance
+     * @return slot of the zombie, or -1 if there is none.
+     */
+    public int findNearest(float gazeAngle, float angleLimit, float[] positions) {
+        int first = bucketOf(gazeAngle - angleLimit);
+        int span = (int) Math.ceil(2 * angleLimit / bucketWidth) + 1;
+        span = Math.min(span, bucketCount);
+
+        int nearest = -1;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int b = 0; b < span; b++) {
+            int bucket = (first + b) % bucketCount;
+            for (int slot = bucketHeads[bucket]; slot != -1; slot = next[slot]) {
+                float delta = Math.abs(angles[slot] - gazeAngle);
+                if (delta > Math.PI) {
+                    delta = TWO_PI - delta;
+                }
+                if (delta >= angleLimit) {
+                    continue;
+                }
+
+                int p = slot * ZombieHorde.POSITION_STRIDE;
+                float distance = positions[p] * positions[p] + positions[p + 2] * positions[p + 2];
+                if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearest = slot;
+                }
+            }
+        }
+
+        return nearest;
+    }
+}
@@ -0,0 +1,59 @@
+package fr.neamar.aloneindarkness.entity;
+
+/**
+ * How much work a zombie is worth, by distance to the player: close zombies are simulated,
+ * heard and drawn in full, distant ones more coarsely.
+ * <p/>
+ * <p>A zombie changes tier {@link #HYSTERESIS} past the tier boundary, so one walking along a
+ * boundary doesn't flip between tiers every tick.
+ */
+public class LevelOfDetail {
+    public static final int NEAR = 0;
+    public static final int MEDIUM = 1;
+    public static final int FAR = 2;
+    public static final int TIER_COUNT = 3;
+
+    public static final String[] TIER_NAMES = {"near", "medium", "far"};
+
+    // Farthest distance of each tier but the last one, which has no limit
+    public static final float[] DISTANCES = {4f, 5.5f};
+    public static final float HYSTERESIS = 0.25f;
+
+    // The zombie moves once every this many simulation ticks, by as many steps
+    public static final int[] TICK_DIVISORS = {1, 2, 4};
+    // Its voices are refreshed once every this many ticks
+    public static final int[] AUDIO_DIVISORS = {1, 2, 4};
+    // Sound sources that may get a voice: footsteps and breathing, or footsteps only
+    public static final int[] SOUND_SOURCES = {2, 2, 1};
+
+    public static final int MESH_CUBE = 0;
+    // Cube without its top and bottom faces, never facing a player standing at the zombies' height
+    public static final int MESH_SIDES = 1;
+    public static final int MESH_COUNT = 2;
+    public static final int[] MESHES = {MESH_CUBE, MESH_CUBE, MESH_SIDES};
+
+    /**
+     * @param tier current tier of the zombie
+     * @return its tier at this distance from the player.
+     */
+    public static int tierOf(float distance, int tier) {
+        while (tier > 0 && distance < DISTANCES[tier - 1] - HYSTERESIS) {
+            tier--;
+        }
+        while (tier < TIER_COUNT - 1 && distance > DISTANCES[tier] + HYSTERESIS) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * @return tier of a zombie appearing at this distance.
+     */
+    public static int tierOf(float distance) {
+        int tier = 0;
+        while (tier < TIER_COUNT - 1 && distance > DISTANCES[tier]) {
+            tier++;
+        }
+        return tier;
+    }
+}
@@ -0,0 +1,29 @@
+package fr.neamar.aloneindarkness.entity;
+
+/**
+ * The part of the audio engine used by the horde, so that the horde itself doesn't depend on
+ * Android and can run on a plain JVM.
+ * <p/>
+ * <p>Sound object methods behave like their GvrAudioEngine counterparts.
+ */
+public interface ZombieAudio {
+    // Same value as GvrAudioEngine.INVALID_ID
+    int INVALID_ID = -1;
+
+    int createSoundObject(String file);
+
+    void setSoundObjectPosition(int soundId, float x, float y, float z);
+
+    void setSoundVolume(int soundId, float volume);
+
+    void playSound(int soundId, boolean loopingEnabled);
+
+    void stopSound(int soundId);
+
+    boolean isSoundPlaying(int soundId);
+
+    /**
+     * Scream where a zombie just died. Must not block.
+     */
+    void playDeathSound(float x, float y, float z);
+}
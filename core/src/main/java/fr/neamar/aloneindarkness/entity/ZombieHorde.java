@@ -0,0 +1,436 @@
+package fr.neamar.aloneindarkness.entity;
+
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.audio.VoiceBudget;
+import fr.neamar.aloneindarkness.math.Mat4;
+
+/**
+ * Every zombie currently walking toward the player.
+ * <p/>
+ * <p>Zombies are not objects: their state is packed into primitive arrays indexed by slot
+ * (struct-of-arrays), so a horde of thousands stays contiguous in memory and spawning or
+ * killing never allocates. Slot indices are only stable until the next despawn, which moves
+ * the last zombie into the freed slot.
+ * <p/>
+ * <p>The slots are the zombie pool: a spawn resets every field of the slot it takes, sound ids
+ * included, and a kill stops the sounds of the zombie before freeing its slot. {@link #poolHits}
+ * counts spawns into a slot a zombie used before, {@link #poolMisses} spawns into a slot never
+ * used yet, at most {@link #capacity} of them.
+ * <p/>
+ * <p>Each zombie has two sound sources, footsteps and breathing. Only the most audible ones
+ * within the {@link #voiceBudget} get a sound object: the others are virtual, and get one back
+ * when they come closer. Voices fade in when promoted and fade out when demoted. A voice fading
+ * out still counts against the budget, so the budget caps the sound objects playing.
+ * <p/>
+ * <p>Each zombie has a {@link LevelOfDetail} tier, from its distance to the player: distant
+ * zombies move every few ticks by several steps at once, get their voices refreshed less often
+ * and only keep their footsteps.
+ */
+public class ZombieHorde {
+    public static final String TAG = "ZombieHorde";
+
+    public static final String[] ZOMBIE_BREATHING_SOUND_FILES = new String[] {
+            "zombies/breathing_1.wav",
+            "zombies/breathing_2.wav",
+            "zombies/breathing_3.wav",
+            "zombies/breathing_4.wav"
+    };
+    public static final String[] ZOMBIE_WALKING_SOUND_FILES = new String[] {
+            "zombies/walking_1.wav"
+    };
+    public static final String[] ZOMBIE_DEATH_SOUND_FILES = new String[] {
+            "zombies/death_1.wav",
+            "zombies/death_2.wav",
+            "zombies/death_3.wav",
+            "zombies/death_4.wav",
+            "zombies/death_5.wav",
+            "zombies/death_6.wav",
+            "zombies/death_7.wav",
+            "zombies/death_8.wav",
+            "zombies/death_9.wav",
+            "zombies/death_10.wav"
+    };
+    // A zombie closer than this to the player kills him.
+    public static final float KILL_DISTANCE = 2f;
+
+    // Sound sources of a zombie, in the audibility scores
+    public static final int FOOTSTEPS = 0;
+    public static final int BREATHING = 1;
+    public static final int SOURCES_PER_ZOMBIE = 2;
+
+    public static final float FOOTSTEPS_VOLUME = 1f;
+    public static final float BREATHING_VOLUME = 1f;
+    // Breathing tells a zombie is close, it wins over footsteps at the same distance
+    public static final float FOOTSTEPS_PRIORITY = 1f;
+    public static final float BREATHING_PRIORITY = 2f;
+
+    // Promoted and demoted voices fade over this many ticks
+    public static final int FADE_TICKS = 30;
+
+    public static final int POSITION_STRIDE = 3;
+    public static final int MATRIX_STRIDE = 16;
+
+    public final int capacity;
+
+    // x, y, z of each zombie, at the latest tick and at the one before
+    public final float[] positions;
+    public final float[] previousPositions;
+    public final float[] speeds;
+    // Column-major model matrix of each zombie
+    public final float[] modelCubes;
+
+    public final int[] breathingSoundIds;
+    public final int[] footstepSoundIds;
+    // Fade of each voice, from 0 to 1
+    public final float[] breathingGains;
+    public final float[] footstepGains;
+
+    // LevelOfDetail tier of each zombie
+    public final int[] tiers;
+    // Ticks elapsed since the zombie last moved
+    private final int[] pendingTicks;
+    // Zombies in each tier, at the latest tick
+    public final int[] tierCounts = new int[LevelOfDetail.TIER_COUNT];
+    private int tickCount = 0;
+
+    public final VoiceBudget voiceBudget;
+    // Audibility of every source, SOURCES_PER_ZOMBIE per zombie
+    private final float[] audibilities;
+
+    // Zombies by direction, to find what the user is looking at
+    public final GazeIndex gazeIndex;
+
+    private int size = 0;
+    // Incremented whenever slots are added, removed or moved
+    public int modCount = 0;
+
+    public long poolHits = 0;
+    public long poolMisses = 0;
+    // Largest size reached, the slots above were never used
+    public int peakSize = 0;
+
+    private final Random soundGenerator;
+
+    // During updateVoices(): sources ranked real so far, and sound objects playing
+    private int realVoices;
+    private int renderedVoices;
+
+    public ZombieHorde(int capacity) {
+        this(capacity, new Random().nextLong());
+    }
+
+    /**
+     * @param soundSeed seed of the random choice of zombie sounds, for replayable sessions
+     */
+    public ZombieHorde(int capacity, long soundSeed) {
+        this.capacity = capacity;
+        soundGenerator = new Random(soundSeed);
+
+        positions = new float[capacity * POSITION_STRIDE];
+        previousPositions = new float[capacity * POSITION_STRIDE];
+        speeds = new float[capacity];
+        modelCubes = new float[capacity * MATRIX_STRIDE];
+        breathingSoundIds = new int[capacity];
+        footstepSoundIds = new int[capacity];
+        breathingGains = new float[capacity];
+        footstepGains = new float[capacity];
+        tiers = new int[capacity];
+        pendingTicks = new int[capacity];
+
+        voiceBudget = new VoiceBudget(VoiceBudget.DEFAULT_VOICES, capacity * SOURCES_PER_ZOMBIE);
+        audibilities = new float[capacity * SOURCES_PER_ZOMBIE];
+
+        gazeIndex = new GazeIndex(capacity, GazeIndex.DEFAULT_BUCKET_COUNT);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add a zombie to the horde.
+     *
+     * @return the slot of the new zombie, or -1 if the horde is full.
+     */
+    public int spawn(float x, float y, float z, float speed, ZombieAudio audio) {
+        if (size == capacity) {
+            return -1;
+        }
+
+        int i = size++;
+        modCount++;
+        if (i < peakSize) {
+            poolHits++;
+        } else {
+            poolMisses++;
+            peakSize = size;
+        }
+
+        positions[i * POSITION_STRIDE] = x;
+        positions[i * POSITION_STRIDE + 1] = y;
+        positions[i * POSITION_STRIDE + 2] = z;
+        System.arraycopy(positions, i * POSITION_STRIDE, previousPositions, i * POSITION_STRIDE, POSITION_STRIDE);
+        speeds[i] = speed;
+        breathingSoundIds[i] = ZombieAudio.INVALID_ID;
+        footstepSoundIds[i] = ZombieAudio.INVALID_ID;
+        breathingGains[i] = 0;
+        footstepGains[i] = 0;
+        tiers[i] = LevelOfDetail.tierOf((float) Math.sqrt(x * x + z * z));
+        // Spread the moves of distant zombies over the ticks
+        pendingTicks[i] = i % LevelOfDetail.TICK_DIVISORS[tiers[i]];
+        gazeIndex.insert(i, (float) Math.atan2(z, x));
+
+        updateModelPosition(i, audio);
+        return i;
+    }
+
+    /**
+     * Remove a zombie in O(1) by moving the last zombie into its slot.
+     * Sounds are not stopped, see {@link #kill(int, ZombieAudio)}.
+     */
+    public void despawn(int i) {
+        int last = --size;
+        modCount++;
+        gazeIndex.remove(i);
+        if (i != last) {
+            gazeIndex.move(last, i);
+            System.arraycopy(positions, last * POSITION_STRIDE, positions, i * POSITION_STRIDE, POSITION_STRIDE);
+            System.arraycopy(previousPositions, last * POSITION_STRIDE, previousPositions, i * POSITION_STRIDE, POSITION_STRIDE);
+            System.arraycopy(modelCubes, last * MATRIX_STRIDE, modelCubes, i * MATRIX_STRIDE, MATRIX_STRIDE);
+            speeds[i] = speeds[last];
+            breathingSoundIds[i] = breathingSoundIds[last];
+            footstepSoundIds[i] = footstepSoundIds[last];
+            breathingGains[i] = breathingGains[last];
+            footstepGains[i] = footstepGains[last];
+            tiers[i] = tiers[last];
+            pendingTicks[i] = pendingTicks[last];
+        }
+    }
+
+    /**
+     * Silently remove every zombie.
+     */
+    public void clear(ZombieAudio audio) {
+        while (size > 0) {
+            int last = size - 1;
+            audio.stopSound(breathingSoundIds[last]);
+            audio.stopSound(footstepSoundIds[last]);
+            despawn(last);
+        }
+    }
+
+    /**
+     * Move every zombie toward the player by one simulation tick. Distant zombies only move
+     * every {@link LevelOfDetail#TICK_DIVISORS} ticks, by the steps they missed.
+     *
+     * @return the slot of a zombie that reached the player, or -1 if the player is still alive.
+     */
+    public int tick(final ZombieAudio audio) {
+        System.arraycopy(positions, 0, previousPositions, 0, size * POSITION_STRIDE);
+        tickCount++;
+
+        for (int tier = 0; tier < LevelOfDetail.TIER_COUNT; tier++) {
+            tierCounts[tier] = 0;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (++pendingTicks[i] >= LevelOfDetail.TICK_DIVISORS[tiers[i]]) {
+                int steps = pendingTicks[i];
+                pendingTicks[i] = 0;
+                if (moveZombie(i, steps, audio)) {
+                    return i;
+                }
+            }
+            tierCounts[tiers[i]]++;
+        }
+
+        updateVoices(audio); // Zombie noises
+        return -1;
+    }
+
+    private boolean moveZombie(int i, int steps, final ZombieAudio audio) {
+        int p = i * POSITION_STRIDE;
+
+        double angleXZ = Math.atan2(positions[p + 2], positions[p]);
+        double distance = Math.sqrt(Math.pow(positions[p], 2) + Math.pow(positions[p + 2], 2));
+
+        double newDistance = distance - speeds[i] * steps;
+
+        if (newDistance < KILL_DISTANCE) {
+            audio.stopSound(breathingSoundIds[i]);
+            audio.stopSound(footstepSoundIds[i]);
+            return true;
+        }
+
+        positions[p] = (float) (Math.cos(angleXZ) * newDistance);
+        positions[p + 2] = (float) (Math.sin(angleXZ) * newDistance);
+        gazeIndex.update(i, (float) angleXZ);
+        tiers[i] = LevelOfDetail.tierOf((float) newDistance, tiers[i]);
+        return false;
+    }
+
+    // Update the sound position from the model.
+    private void updateSoundPosition(final ZombieAudio audio, int i) {
+        int p = i * POSITION_STRIDE;
+        if (breathingSoundIds[i] != ZombieAudio.INVALID_ID) {
+            audio.setSoundObjectPosition(
+                    breathingSoundIds[i], positions[p], positions[p + 1], positions[p + 2]);
+        }
+        if (footstepSoundIds[i] != ZombieAudio.INVALID_ID) {
+            audio.setSoundObjectPosition(
+                    footstepSoundIds[i], positions[p], positions[p + 1], positions[p + 2]);
+        }
+    }
+
+    /**
+     * Hand the voices of the budget to the most audible sources, and keep them playing and
+     * following their zombie.
+     */
+    public void updateVoices(final ZombieAudio audio) {
+        renderedVoices = 0;
+        for (int i = 0; i < size; i++) {
+            int p = i * POSITION_STRIDE;
+            int a = i * SOURCES_PER_ZOMBIE;
+            audibilities[a + FOOTSTEPS] = VoiceBudget.audibility(positions[p], positions[p + 1], positions[p + 2],
+                    FOOTSTEPS_VOLUME, FOOTSTEPS_PRIORITY, footstepSoundIds[i] != ZombieAudio.INVALID_ID);
+            audibilities[a + BREATHING] = VoiceBudget.audibility(positions[p], positions[p + 1], positions[p + 2],
+                    BREATHING_VOLUME, BREATHING_PRIORITY, breathingSoundIds[i] != ZombieAudio.INVALID_ID);
+            if (footstepSoundIds[i] != ZombieAudio.INVALID_ID) {
+                renderedVoices++;
+            }
+            if (breathingSoundIds[i] != ZombieAudio.INVALID_ID) {
+                renderedVoices++;
+            }
+        }
+
+        int sources = size * SOURCES_PER_ZOMBIE;
+        float threshold = voiceBudget.threshold(audibilities, sources);
+        realVoices = 0;
+
+        for (int i = 0; i < size; i++) {
+            int sourceCount = LevelOfDetail.SOUND_SOURCES[tiers[i]];
+            // Distant zombies are refreshed less often, and fade faster to keep the same fade time
+            int audioDivisor = LevelOfDetail.AUDIO_DIVISORS[tiers[i]];
+            boolean refresh = (tickCount + i) % audioDivisor == 0;
+
+            updateSource(i, FOOTSTEPS, FOOTSTEPS < sourceCount, threshold, refresh, audioDivisor, audio);
+            updateSource(i, BREATHING, BREATHING < sourceCount, threshold, refresh, audioDivisor, audio);
+        }
+
+        voiceBudget.realVoices = renderedVoices;
+        voiceBudget.virtualSources = sources - renderedVoices;
+    }
+
+    private void updateSource(int i, int source, boolean allowed, float threshold, boolean refresh, int ticks, final ZombieAudio audio) {
+        int[] soundIds = source == FOOTSTEPS ? footstepSoundIds : breathingSoundIds;
+        int voices = voiceBudget.getVoices();
+        boolean playing = soundIds[i] != ZombieAudio.INVALID_ID;
+
+        // Voices fading out are still rendered: a new voice only starts if the budget has room left
+        boolean real = allowed && realVoices < voices && audibilities[i * SOURCES_PER_ZOMBIE + source] >= threshold
+                && (playing || renderedVoices < voices);
+        if (real) {
+            realVoices++;
+        }
+        if (refresh) {
+            updateVoice(i, source, real, ticks, audio);
+            if ((soundIds[i] != ZombieAudio.INVALID_ID) != playing) {
+                renderedVoices += playing ? -1 : 1;
+            }
+        }
+    }
+
+    private void updateVoice(int i, int source, boolean real, int ticks, final ZombieAudio audio) {
+        int[] soundIds = source == FOOTSTEPS ? footstepSoundIds : breathingSoundIds;
+        float[] gains = source == FOOTSTEPS ? footstepGains : breathingGains;
+        int soundId = soundIds[i];
+
+        if (!real) {
+            if (soundId == ZombieAudio.INVALID_ID) {
+                return;
+            }
+
+            gains[i] -= (float) ticks / FADE_TICKS;
+            if (gains[i] <= 0 || !audio.isSoundPlaying(soundId)) {
+                // Faded out, the voice is free for another source
+                audio.stopSound(soundId);
+                soundIds[i] = ZombieAudio.INVALID_ID;
+                gains[i] = 0;
+                voiceBudget.demotions++;
+                return;
+            }
+        } else {
+            gains[i] = Math.min(1f, gains[i] + (float) ticks / FADE_TICKS);
+
+            if (soundId == ZombieAudio.INVALID_ID || !audio.isSoundPlaying(soundId)) {
+                if (soundId == ZombieAudio.INVALID_ID) {
+                    voiceBudget.promotions++;
+                }
+
+                // Footsteps loop, breathing picks another sound each time it ends
+                String[] files = source == FOOTSTEPS ? ZOMBIE_WALKING_SOUND_FILES : ZOMBIE_BREATHING_SOUND_FILES;
+                int newSoundId = audio.createSoundObject(files[soundGenerator.nextInt(files.length)]);
+                if (newSoundId == ZombieAudio.INVALID_ID) {
+                    return;
+                }
+
+                // update the current sound to ensure we can follow the zombie model
+                soundIds[i] = newSoundId;
+                setVoice(i, source, newSoundId, gains[i], audio);
+                audio.playSound(newSoundId, source == FOOTSTEPS);
+                return;
+            }
+        }
+
+        setVoice(i, source, soundId, gains[i], audio);
+    }
+
+    private void setVoice(int i, int source, int soundId, float gain, final ZombieAudio audio) {
+        int p = i * POSITION_STRIDE;
+        audio.setSoundVolume(soundId, gain * (source == FOOTSTEPS ? FOOTSTEPS_VOLUME : BREATHING_VOLUME));
+        audio.setSoundObjectPosition(soundId, positions[p], positions[p + 1], positions[p + 2]);
+    }
+
+    /**
+     * Build the model matrix of every zombie, between its previous and latest tick positions.
+     *
+     * @param alpha 0 for the previous tick, 1 for the latest
+     */
+    public void updateModelCubes(float alpha) {
+        for (int i = 0; i < size; i++) {
+            int p = i * POSITION_STRIDE;
+            int m = i * MATRIX_STRIDE;
+            float x = previousPositions[p] + (positions[p] - previousPositions[p]) * alpha;
+            float y = previousPositions[p + 1] + (positions[p + 1] - previousPositions[p + 1]) * alpha;
+            float z = previousPositions[p + 2] + (positions[p + 2] - previousPositions[p + 2]) * alpha;
+
+            Mat4.setTranslation(modelCubes, m, x, y, z);
+        }
+    }
+
+    /**
+     * Updates the cube model position.
+     */
+    public void updateModelPosition(int i, ZombieAudio audio) {
+        int p = i * POSITION_STRIDE;
+        int m = i * MATRIX_STRIDE;
+        Mat4.setTranslation(modelCubes, m, positions[p], positions[p + 1], positions[p + 2]);
+
+        // Update the sound location to match it with the new cube position.
+        updateSoundPosition(audio, i);
+    }
+
+    /**
+     * Play a death sound where the zombie stands and remove it from the horde.
+     */
+    public void kill(int i, ZombieAudio audio) {
+        audio.stopSound(breathingSoundIds[i]);
+        audio.stopSound(footstepSoundIds[i]);
+
+        int p = i * POSITION_STRIDE;
+        audio.playDeathSound(positions[p], positions[p + 1], positions[p + 2]);
+
+        despawn(i);
+    }
+}
@@ -0,0 +1,389 @@
+package fr.neamar.aloneindarkness.entity;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import fr.neamar.aloneindarkness.game.GameRenderer;
+import fr.neamar.aloneindarkness.gl.CommandBuffer;
+import fr.neamar.aloneindarkness.gl.Gl;
+import fr.neamar.aloneindarkness.gl.GlChecker;
+import fr.neamar.aloneindarkness.gl.ProgramCache;
+import fr.neamar.aloneindarkness.layoutdata.ZombieLayoutData;
+import fr.neamar.aloneindarkness.render.Frustum;
+import fr.neamar.aloneindarkness.render.Mesh;
+import fr.neamar.aloneindarkness.render.RenderQueue;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * Draws the whole horde at once.
+ * <p/>
+ * <p>On GLES3, per-zombie data (model matrix and "found" flag) is uploaded once per frame in a
+ * single instance buffer, and each eye is a single instanced draw call.
+ * On GLES2 we fall back to pseudo-instancing: the cube is replicated {@link #BATCH_SIZE} times,
+ * each copy tagged with its index in a uniform array of model matrices.
+ * <p/>
+ * <p>Draws go through a {@link RenderQueue}: batches are sorted front to back, and the program,
+ * buffers and per-eye uniforms they share are only set once thanks to the GL state cache.
+ * <p/>
+ * <p>Zombies are drawn with the mesh of their {@link LevelOfDetail} tier: instances are grouped
+ * by mesh, and each group is drawn separately.
+ * <p/>
+ * <p>Only the zombies whose bounding sphere is in sight are drawn, most of the horde is behind
+ * or beside the player. Zombies are culled once per frame, for both eyes: with instancing, the
+ * visible instances are uploaded once per frame too.
+ */
+public class ZombieLoader implements GameRenderer, RenderQueue.Renderable {
+    // Model matrix followed by the "found" flag
+    public static final int INSTANCE_STRIDE = ZombieHorde.MATRIX_STRIDE + 1;
+
+    // Zombies drawn per call when instancing is not available, must match batched_vertex.shader
+    public static final int BATCH_SIZE = 20;
+
+    // Zombies are in front of the floor, draw them first
+    public static final int PROGRAM_RANK = 0;
+
+    private final Gl gl;
+    private final GlChecker glChecker;
+    private final CommandBuffer.Marker drawingZombies;
+
+    // By LevelOfDetail mesh
+    public final Mesh[] meshes = new Mesh[LevelOfDetail.MESH_COUNT];
+    public final Mesh[] meshBatches = new Mesh[LevelOfDetail.MESH_COUNT];
+
+    public boolean instancingSupported;
+
+    public int cubeProgram;
+    public int cubePositionParam;
+    public int cubeNormalParam;
+    public int cubeColorParam;
+    public int cubeViewParam;
+    public int cubeProjectionParam;
+    public int cubeLightPosParam;
+    public int cubeFoundColorParam;
+
+    // Instanced path
+    public int cubeModelParam;
+    public int cubeFoundParam;
+
+    // Pseudo-instanced path
+    public int cubeModelsParam;
+    public int cubeFoundsParam;
+    public int cubeInstanceIndexParam;
+
+    private final FloatBuffer instanceData;
+    // Per instance data when instancing
+    private final int[] instanceBuffer = new int[1];
+    // Instance index of each vertex of the mesh batches otherwise
+    private final int[] instanceIndexBuffers = new int[LevelOfDetail.MESH_COUNT];
+    private final float[] batchFound = new float[BATCH_SIZE];
+
+    // Model matrices of the frame grouped by mesh, the zombies of mesh m start at frameMeshStarts[m]
+    private final float[] frameModels;
+    private final int[] frameMeshStarts = new int[LevelOfDetail.MESH_COUNT + 1];
+    private int frameCount = 0;
+    // Index of the highlighted zombie in frameModels
+    private int frameFoundZombie = -1;
+
+    // Same for the zombies in sight this frame
+    private final Frustum frustum = new Frustum();
+    private final float[] models;
+    private final int[] meshStarts = new int[LevelOfDetail.MESH_COUNT + 1];
+    private int instanceCount = 0;
+    private int foundZombie = -1;
+
+    // In the last frame
+    public int drawn = 0;
+    public int culled = 0;
+
+    // Eye being drawn, read by render()
+    private float[] view;
+    private float[] perspective;
+    private float[] lightPosInEyeSpace;
+
+    public ZombieLoader(int capacity, Gl gl, GlChecker glChecker) {
+        this.gl = gl;
+        this.glChecker = glChecker;
+        drawingZombies = glChecker.checkpoint("Drawing zombies");
+
+        meshes[LevelOfDetail.MESH_CUBE] = Mesh.fromTriangles(ZombieLayoutData.CUBE_COORDS, ZombieLayoutData.CUBE_NORMALS, ZombieLayoutData.CUBE_COLORS);
+        // The side faces come first in the layout data
+        int sideVertices = ZombieLayoutData.CUBE_SIDE_VERTICES;
+        meshes[LevelOfDetail.MESH_SIDES] = Mesh.fromTriangles(
+                Arrays.copyOf(ZombieLayoutData.CUBE_COORDS, sideVertices * Mesh.POSITION_SIZE),
+                Arrays.copyOf(ZombieLayoutData.CUBE_NORMALS, sideVertices * Mesh.NORMAL_SIZE),
+                Arrays.copyOf(ZombieLayoutData.CUBE_COLORS, sideVertices * Mesh.COLOR_SIZE));
+        for (int mesh = 0; mesh < LevelOfDetail.MESH_COUNT; mesh++) {
+            meshBatches[mesh] = meshes[mesh].repeat(BATCH_SIZE);
+        }
+
+        instanceData = ByteBuffer.allocateDirect(capacity * INSTANCE_STRIDE * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        frameModels = new float[capacity * ZombieHorde.MATRIX_STRIDE];
+        models = new float[capacity * ZombieHorde.MATRIX_STRIDE];
+    }
+
+    /**
+     * Upload the cube and build the cube program, the instanced one if the context supports it.
+     */
+    public void onSurfaceCreated(ProgramCache programs, String passthroughFragment, String instancedVertex, String batchedVertex) {
+        String version = gl.glGetString(Gl.GL_VERSION);
+        instancingSupported = version != null && version.startsWith("OpenGL ES 3");
+
+        // With instancing, the meshes are only needed once. Otherwise they are repeated for every
+        // zombie in a batch.
+        for (int mesh = 0; mesh < LevelOfDetail.MESH_COUNT; mesh++) {
+            if (instancingSupported) {
+                meshes[mesh].upload(gl);
+            } else {
+                meshBatches[mesh].upload(gl);
+            }
+        }
+
+        cubeProgram = programs.getProgram(instancingSupported ? instancedVertex : batchedVertex, passthroughFragment);
+        gl.glUseProgram(cubeProgram);
+
+        glChecker.checkAlways("Cube program");
+
+        cubePositionParam = gl.glGetAttribLocation(cubeProgram, "a_Position");
+        cubeNormalParam = gl.glGetAttribLocation(cubeProgram, "a_Normal");
+        cubeColorParam = gl.glGetAttribLocation(cubeProgram, "a_Color");
+
+        cubeViewParam = gl.glGetUniformLocation(cubeProgram, "u_View");
+        cubeProjectionParam = gl.glGetUniformLocation(cubeProgram, "u_Projection");
+        cubeLightPosParam = gl.glGetUniformLocation(cubeProgram, "u_LightPos");
+        cubeFoundColorParam = gl.glGetUniformLocation(cubeProgram, "u_FoundColor");
+
+        gl.glGenBuffers(1, instanceBuffer, 0);
+        if (instancingSupported) {
+            cubeModelParam = gl.glGetAttribLocation(cubeProgram, "a_Model");
+            cubeFoundParam = gl.glGetAttribLocation(cubeProgram, "a_Found");
+        } else {
+            gl.glGenBuffers(LevelOfDetail.MESH_COUNT, instanceIndexBuffers, 0);
+            for (int mesh = 0; mesh < LevelOfDetail.MESH_COUNT; mesh++) {
+                uploadInstanceIndices(mesh);
+            }
+
+            cubeModelsParam = gl.glGetUniformLocation(cubeProgram, "u_Models");
+            cubeFoundsParam = gl.glGetUniformLocation(cubeProgram, "u_Found");
+            cubeInstanceIndexParam = gl.glGetAttribLocation(cubeProgram, "a_InstanceIndex");
+        }
+
+        glChecker.checkAlways("Cube program params");
+    }
+
+    private void uploadInstanceIndices(int mesh) {
+        Mesh batch = meshBatches[mesh];
+        int meshVertices = meshes[mesh].vertexCount;
+
+        FloatBuffer instanceIndices = ByteBuffer.allocateDirect(batch.vertexCount * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        for (int i = 0; i < batch.vertexCount; i++) {
+            instanceIndices.put(i / meshVertices);
+        }
+        instanceIndices.position(0);
+
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, instanceIndexBuffers[mesh]);
+        gl.glBufferData(Gl.GL_ARRAY_BUFFER, batch.vertexCount * 4, instanceIndices, Gl.GL_STATIC_DRAW);
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Prepare the zombies of this frame, for both eyes.
+     */
+    @Override
+    public void onFrameReady(FrameState frame) {
+        frameCount = frame.zombieCount;
+        frameFoundZombie = -1;
+
+        // Group the zombies by mesh
+        int next = 0;
+        for (int mesh = 0; mesh < LevelOfDetail.MESH_COUNT; mesh++) {
+            frameMeshStarts[mesh] = next;
+            for (int i = 0; i < frameCount; i++) {
+                if (LevelOfDetail.MESHES[frame.zombieTiers[i]] == mesh) {
+                    if (i == frame.lookedAtZombie) {
+                        frameFoundZombie = next;
+                    }
+                    System.arraycopy(frame.zombieModels, i * ZombieHorde.MATRIX_STRIDE, frameModels, next * ZombieHorde.MATRIX_STRIDE, ZombieHorde.MATRIX_STRIDE);
+                    next++;
+                }
+            }
+        }
+        frameMeshStarts[LevelOfDetail.MESH_COUNT] = next;
+    }
+
+    /**
+     * Keep the zombies of the frame in sight, for the draws submitted next.
+     *
+     * @param margin added to the bounding radius of the zombies, e.g. to cover both eyes with the
+     *               frustum of the head
+     */
+    public void cull(float[] perspective, float[] view, float margin) {
+        frustum.set(perspective, view);
+        float radius = ZombieLayoutData.CUBE_BOUNDING_RADIUS + margin;
+
+        int next = 0;
+        foundZombie = -1;
+        for (int mesh = 0; mesh < LevelOfDetail.MESH_COUNT; mesh++) {
+            meshStarts[mesh] = next;
+            for (int i = frameMeshStarts[mesh]; i < frameMeshStarts[mesh + 1]; i++) {
+                int m = i * ZombieHorde.MATRIX_STRIDE;
+                if (frustum.intersectsSphere(frameModels[m + 12], frameModels[m + 13], frameModels[m + 14], radius)) {
+                    if (i == frameFoundZombie) {
+                        foundZombie = next;
+                    }
+                    System.arraycopy(frameModels, m, models, next * ZombieHorde.MATRIX_STRIDE, ZombieHorde.MATRIX_STRIDE);
+                    next++;
+                }
+            }
+        }
+        meshStarts[LevelOfDetail.MESH_COUNT] = next;
+        instanceCount = next;
+
+        drawn = next;
+        culled = frameCount - next;
+    }
+
+    private void uploadInstances() {
+        instanceData.clear();
+        for (int i = 0; i < instanceCount; i++) {
+            instanceData.put(models, i * ZombieHorde.MATRIX_STRIDE, ZombieHorde.MATRIX_STRIDE);
+            instanceData.put(i == foundZombie ? 1f : 0f);
+        }
+        instanceData.position(0);
+
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, instanceBuffer[0]);
+        gl.glBufferData(Gl.GL_ARRAY_BUFFER, instanceCount * INSTANCE_STRIDE * 4, instanceData, Gl.GL_STREAM_DRAW);
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, 0);
+
+        glChecker.check("Uploading instances");
+    }
+
+    /**
+     * Queue the zombies kept by {@link #cull(float[], float[], float)}: a single draw per mesh
+     * with instancing, a draw per batch otherwise. The arrays are read when the queue is flushed.
+     */
+    public void submitZombies(RenderQueue queue, float[] view, float[] perspective, float[] lightPosInEyeSpace) {
+        if (instanceCount == 0) {
+            return;
+        }
+
+        if (instancingSupported) {
+            uploadInstances();
+        }
+
+        this.view = view;
+        this.perspective = perspective;
+        this.lightPosInEyeSpace = lightPosInEyeSpace;
+
+        for (int mesh = 0; mesh < LevelOfDetail.MESH_COUNT; mesh++) {
+            int end = meshStarts[mesh + 1];
+            if (instancingSupported) {
+                if (end > meshStarts[mesh]) {
+                    queue.submit(this, PROGRAM_RANK, mesh, nearestDepth(meshStarts[mesh], end - meshStarts[mesh]), meshStarts[mesh]);
+                }
+            } else {
+                for (int start = meshStarts[mesh]; start < end; start += BATCH_SIZE) {
+                    queue.submit(this, PROGRAM_RANK, mesh, nearestDepth(start, Math.min(BATCH_SIZE, end - start)), start);
+                }
+            }
+        }
+    }
+
+    // Mesh of the zombie at this index of models
+    private int meshOf(int index) {
+        int mesh = 0;
+        while (index >= meshStarts[mesh + 1]) {
+            mesh++;
+        }
+        return mesh;
+    }
+
+    // Distance from the player to the closest zombie of the range. The eyes are close enough to the origin.
+    private float nearestDepth(int start, int count) {
+        float nearest = Float.MAX_VALUE;
+        for (int i = start; i < start + count; i++) {
+            int m = i * ZombieHorde.MATRIX_STRIDE;
+            float x = models[m + 12];
+            float y = models[m + 13];
+            float z = models[m + 14];
+            nearest = Math.min(nearest, x * x + y * y + z * z);
+        }
+        return (float) Math.sqrt(nearest);
+    }
+
+    /**
+     * Draw the zombies of a mesh, or the batch, starting at the given zombie.
+     */
+    @Override
+    public void render(Gl gl, int start) {
+        // Same values for every batch, the state cache only uploads them once per eye.
+        gl.glUseProgram(cubeProgram);
+
+        gl.glUniform3fv(cubeLightPosParam, 1, lightPosInEyeSpace, 0);
+        gl.glUniformMatrix4fv(cubeViewParam, 1, false, view, 0);
+        gl.glUniformMatrix4fv(cubeProjectionParam, 1, false, perspective, 0);
+        gl.glUniform4fv(cubeFoundColorParam, 1, ZombieLayoutData.CUBE_FOUND_COLORS, 0);
+
+        int mesh = meshOf(start);
+        int count = meshStarts[mesh + 1] - start;
+        if (instancingSupported) {
+            drawInstanced(gl, mesh, start, count);
+        } else {
+            drawBatch(gl, mesh, start, Math.min(BATCH_SIZE, count));
+        }
+
+        CommandBuffer.mark(gl, drawingZombies);
+    }
+
+    private void drawInstanced(Gl gl, int mesh, int start, int count) {
+        meshes[mesh].bind(gl, cubePositionParam, cubeNormalParam, cubeColorParam);
+
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, instanceBuffer[0]);
+
+        // There is no base instance in GLES3, the attributes point at the first instance instead.
+        int offset = start * INSTANCE_STRIDE * 4;
+
+        // A mat4 attribute spans four consecutive locations, one per column.
+        for (int column = 0; column < 4; column++) {
+            int location = cubeModelParam + column;
+            gl.glVertexAttribPointer(location, 4, Gl.GL_FLOAT, false, INSTANCE_STRIDE * 4, offset + column * 4 * 4);
+            gl.glEnableVertexAttribArray(location);
+            gl.glVertexAttribDivisor(location, 1);
+        }
+        gl.glVertexAttribPointer(cubeFoundParam, 1, Gl.GL_FLOAT, false, INSTANCE_STRIDE * 4, offset + ZombieHorde.MATRIX_STRIDE * 4);
+        gl.glEnableVertexAttribArray(cubeFoundParam);
+        gl.glVertexAttribDivisor(cubeFoundParam, 1);
+
+        meshes[mesh].drawInstanced(gl, count);
+
+        // Other programs share attribute locations, don't leak the divisors to them.
+        for (int column = 0; column < 4; column++) {
+            gl.glVertexAttribDivisor(cubeModelParam + column, 0);
+            gl.glDisableVertexAttribArray(cubeModelParam + column);
+        }
+        gl.glVertexAttribDivisor(cubeFoundParam, 0);
+        gl.glDisableVertexAttribArray(cubeFoundParam);
+    }
+
+    private void drawBatch(Gl gl, int mesh, int start, int count) {
+        // Left enabled for the next batches, other programs re-point the locations they read.
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, instanceIndexBuffers[mesh]);
+        gl.glVertexAttribPointer(cubeInstanceIndexParam, 1, Gl.GL_FLOAT, false, 0, 0);
+        gl.glEnableVertexAttribArray(cubeInstanceIndexParam);
+
+        meshBatches[mesh].bind(gl, cubePositionParam, cubeNormalParam, cubeColorParam);
+
+        for (int i = 0; i < count; i++) {
+            batchFound[i] = start + i == foundZombie ? 1f : 0f;
+        }
+
+        gl.glUniformMatrix4fv(cubeModelsParam, count, false, models, start * ZombieHorde.MATRIX_STRIDE);
+        gl.glUniform1fv(cubeFoundsParam, count, batchFound, 0);
+        meshBatches[mesh].draw(gl, count * meshes[mesh].indexCount);
+    }
+}
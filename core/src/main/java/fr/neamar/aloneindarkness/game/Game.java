@@ -0,0 +1,281 @@
+package fr.neamar.aloneindarkness.game;
+
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.sim.FrameState;
+import fr.neamar.aloneindarkness.sim.FrameStateBuffer;
+
+/**
+ * The rules of the game: zombies walk toward the player, who shoots the one in sight, reloads
+ * by looking down, and dies when a zombie comes too close.
+ * <p/>
+ * <p>Nothing here depends on Android. The game talks to the outside world through
+ * {@link GameAudio}, {@link GameRenderer} and {@link Listener}, so it runs the same on a headset
+ * and in the headless driver of the :core tests.
+ * <p/>
+ * <p>{@link #tick()} may be called from a simulation thread, the other methods from the rendering
+ * and input threads. Every horde access is made holding the horde monitor.
+ */
+public class Game {
+    // Accuracy to find a Zombie
+    public static final float YAW_LIMIT = 0.35f;
+    // Accuracy to reload
+    public static final float PITCH_LIMIT = 1.2f;
+
+    public static final float MIN_MODEL_DISTANCE = 3.0f;
+    public static final float MAX_MODEL_DISTANCE = 7.0f;
+
+    // Per simulation tick, on average
+    public static final float ZOMBIE_SPEED = 0.007f;
+    // Zombies are up to this much slower or faster than ZOMBIE_SPEED, rolled on every spawn
+    public static final float ZOMBIE_SPEED_SPREAD = 0.2f;
+
+    // The floor is this far below the player
+    public static final float FLOOR_DEPTH = 20f;
+
+    public static final int MAGAZINE_SIZE = 6;
+
+    // Delay between a shot and the shell casing hitting the floor
+    public static final long SHELL_CASING_DELAY_MS = 150;
+
+    // Chance for the player to catch their breath after a kill
+    public static final float BREATH_PROBABILITY = 0.1f;
+
+    public interface Listener {
+        /**
+         * Called with the horde locked.
+         */
+        void onZombieKilled();
+
+        /**
+         * Called from {@link #tick()}, with the horde locked.
+         */
+        void onPlayerDead();
+    }
+
+    public final ZombieHorde horde;
+    public final FrameStateBuffer frameStates;
+
+    private final GameAudio audio;
+    private final GameRenderer renderer;
+    private final Listener listener;
+    private final Random random;
+
+    private int bulletsLeft = MAGAZINE_SIZE;
+    private boolean isReloading = false;
+
+    private volatile boolean playerIsDead = false;
+
+    // Ticks since the game was created, read and written with the horde locked
+    private long tickCount = 0;
+    private long lastTriggerTick = 0;
+
+    public Game(int maxZombies, GameAudio audio, GameRenderer renderer, Listener listener, Random random) {
+        this.audio = audio;
+        this.renderer = renderer;
+        this.listener = listener;
+        this.random = random;
+
+        // Seeded from the game, so a seed replays the whole game
+        horde = new ZombieHorde(maxZombies, random.nextLong());
+        frameStates = new FrameStateBuffer(maxZombies);
+
+        spawnFirstZombie();
+    }
+
+    private void spawnFirstZombie() {
+        // First zombie appears directly in front of user.
+        horde.spawn(0.0f, 0.0f, -MAX_MODEL_DISTANCE / 2.0f, 0f, audio);
+    }
+
+    /**
+     * Start a new game, reusing the horde. The simulation must be stopped.
+     */
+    public void restart() {
+        synchronized (horde) {
+            horde.clear(audio);
+            spawnFirstZombie();
+        }
+        bulletsLeft = MAGAZINE_SIZE;
+        isReloading = false;
+        playerIsDead = false;
+    }
+
+    public int getBulletsLeft() {
+        return bulletsLeft;
+    }
+
+    public boolean isReloading() {
+        return isReloading;
+    }
+
+    public boolean isPlayerDead() {
+        return playerIsDead;
+    }
+
+    /**
+     * @return number of ticks since the game was created, restarts included.
+     */
+    public long getTickCount() {
+        synchronized (horde) {
+            return tickCount;
+        }
+    }
+
+    /**
+     * @return {@link #getTickCount()} when {@link #trigger()} was latest called, whether it shot
+     * or not.
+     */
+    public long getLastTriggerTick() {
+        synchronized (horde) {
+            return lastTriggerTick;
+        }
+    }
+
+    /**
+     * Move the zombies by one simulation tick.
+     *
+     * @return true if the player died during this tick.
+     */
+    public boolean tick() {
+        synchronized (horde) {
+            tickCount++;
+            int killingZombie = horde.tick(audio);
+            if (killingZombie != -1) {
+                onPlayerDead(killingZombie);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onPlayerDead(int killingZombie) {
+        int p = killingZombie * ZombieHorde.POSITION_STRIDE;
+        audio.playPlayerDeath(horde.positions[p], horde.positions[p + 1], horde.positions[p + 2]);
+
+        playerIsDead = true;
+        listener.onPlayerDead();
+    }
+
+    /**
+     * Prepare a frame and hand it to the renderer.
+     *
+     * @param frame         from {@link FrameStateBuffer#beginFrame()}, with its inputs set
+     * @param interpolation how far the simulation is between its last two ticks, from 0 to 1
+     */
+    public void onNewFrame(FrameState frame, float interpolation) {
+        if (isReloading && !frame.reloadPlaying) {
+            isReloading = false;
+            bulletsLeft++;
+        }
+
+        // headView is column-major, its third row is minus the gaze direction.
+        float forwardX = -frame.headView[2];
+        float forwardY = -frame.headView[6];
+        float forwardZ = -frame.headView[10];
+        frame.headPitch = (float) Math.atan2(-forwardY, Math.sqrt(forwardX * forwardX + forwardZ * forwardZ));
+        // Undefined when looking straight up or down
+        float gazeAngle = forwardX == 0 && forwardZ == 0 ? Float.NaN : (float) Math.atan2(forwardZ, forwardX);
+
+        // Zombies are moved by the simulation thread, we only read where they are.
+        synchronized (horde) {
+            frame.tick = tickCount;
+            frame.gazeAngle = gazeAngle;
+            horde.updateModelCubes(interpolation);
+            frame.captureZombies(horde);
+
+            // Both eyes share the same head view, so the zombie highlight is computed once per frame.
+            frame.lookedAtZombie = getLookedAtZombie(frame.gazeAngle);
+        }
+        frameStates.publish(frame);
+
+        renderer.onFrameReady(frame);
+
+        // Looking down reloads.
+        if (frame.headPitch > PITCH_LIMIT && !isReloading && bulletsLeft < MAGAZINE_SIZE) {
+            isReloading = true;
+            audio.playReload(0, -FLOOR_DEPTH / 2, 0);
+        }
+    }
+
+    /**
+     * Shoot at whatever the player looked at in the latest frame.
+     *
+     * @return false if the magazine is empty.
+     */
+    public boolean trigger() {
+        synchronized (horde) {
+            // Even with an empty magazine, so a recording can tell when the trigger was pulled
+            lastTriggerTick = tickCount;
+            if (bulletsLeft <= 0) {
+                return false;
+            }
+
+            bulletsLeft--;
+
+            // Reuse the gaze of the last frame, unless a zombie was killed since then.
+            FrameState frame = frameStates.front();
+            int lookedAtZombie = frame.hordeModCount == horde.modCount ? frame.lookedAtZombie : getLookedAtZombie(frame.gazeAngle);
+            if (lookedAtZombie != -1) {
+                killZombie(lookedAtZombie);
+                listener.onZombieKilled();
+            }
+        }
+
+        audio.playShot(0, -FLOOR_DEPTH / 2, 0);
+
+        // Shell casing
+        float x = 0.1f * random.nextFloat();
+        float z = 0.1f * random.nextFloat();
+        audio.playShellCasing(x, -FLOOR_DEPTH, z, SHELL_CASING_DELAY_MS);
+        return true;
+    }
+
+    /**
+     * Kill a zombie, and spawn a new one at a random position.
+     * The horde must be locked.
+     *
+     * @param deadZombie slot of the zombie in the horde
+     */
+    private void killZombie(int deadZombie) {
+        // Bye bye!
+        horde.kill(deadZombie, audio);
+        spawnZombie();
+
+        // Randomly start human breathing
+        if (random.nextFloat() < BREATH_PROBABILITY && !audio.isPlayerBreathPlaying()) {
+            audio.playPlayerBreath();
+        }
+    }
+
+    /**
+     * Spawn a zombie in a random direction, as far as zombies can be, at a random speed. The
+     * horde must be locked.
+     *
+     * @return slot of the new zombie, or -1 if the horde is full.
+     */
+    public int spawnZombie() {
+        float angleXZ = (float) (random.nextFloat() * 2 * Math.PI);
+        float x = (float) Math.cos(angleXZ) * MAX_MODEL_DISTANCE;
+        float z = (float) Math.sin(angleXZ) * MAX_MODEL_DISTANCE;
+        float speed = ZOMBIE_SPEED * (1 + ZOMBIE_SPEED_SPREAD * (2 * random.nextFloat() - 1));
+
+        return horde.spawn(x, 0f, z, speed, audio);
+    }
+
+    /**
+     * Find the zombie the user is aiming at: the closest one less than {@link #YAW_LIMIT} away
+     * from the gaze direction. The horde must be locked.
+     *
+     * @param gazeAngle direction the user is looking at, see {@link FrameState#gazeAngle}
+     * @return slot of the zombie in the horde, or -1 if the user is not looking at any zombie.
+     */
+    private int getLookedAtZombie(float gazeAngle) {
+        if (Float.isNaN(gazeAngle)) {
+            return -1;
+        }
+
+        return horde.gazeIndex.findNearest(gazeAngle, YAW_LIMIT, horde.positions);
+    }
+}
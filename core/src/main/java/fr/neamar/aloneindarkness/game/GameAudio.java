@@ -0,0 +1,25 @@
+package fr.neamar.aloneindarkness.game;
+
+import fr.neamar.aloneindarkness.entity.ZombieAudio;
+
+/**
+ * Every sound the game rules play. None of these methods may block.
+ */
+public interface GameAudio extends ZombieAudio {
+    void playShot(float x, float y, float z);
+
+    void playShellCasing(float x, float y, float z, long delayMillis);
+
+    void playReload(float x, float y, float z);
+
+    /**
+     * @return true while the reload sound is about to play or playing: the reload lasts as long.
+     */
+    boolean isReloadPlaying();
+
+    void playPlayerBreath();
+
+    boolean isPlayerBreathPlaying();
+
+    void playPlayerDeath(float x, float y, float z);
+}
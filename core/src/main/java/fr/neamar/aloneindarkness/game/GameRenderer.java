@@ -0,0 +1,13 @@
+package fr.neamar.aloneindarkness.game;
+
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * Receives what has to be drawn once the game has prepared a frame.
+ */
+public interface GameRenderer {
+    /**
+     * Called on the rendering thread, the horde is not locked: only the frame may be read.
+     */
+    void onFrameReady(FrameState frame);
+}
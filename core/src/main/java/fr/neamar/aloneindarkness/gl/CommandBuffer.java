@@ -0,0 +1,488 @@
+package fr.neamar.aloneindarkness.gl;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+/**
+ * A {@link Gl} that records draw commands, to issue them later on another {@link Gl}, as many
+ * times as needed: a frame is recorded once and replayed for each eye.
+ * <p/>
+ * <p>Uniform values are copied when recorded, except for the arrays given to {@link
+ * #track(float[])}: those are read again on every replay. Fill them with the values of an eye,
+ * e.g. its view and projection matrices, then replay.
+ * <p/>
+ * <p>Only what draws is recorded: state, uniforms and draw calls. Anything creating GL objects,
+ * uploading buffers or querying the driver must go to the real GL and throws here. Code that must
+ * run along with the commands, e.g. checking their errors or timing them, is recorded as a
+ * {@link Marker}.
+ * <p/>
+ * <p>Commands are packed in an int array, uniform values in a float array. Both grow as needed
+ * and are reused from one frame to the next: recording doesn't allocate once warmed up.
+ */
+public class CommandBuffer implements Gl {
+    /**
+     * Runs on every replay, after the commands recorded before it and before the ones after it.
+     */
+    public interface Marker {
+        void onReplay();
+    }
+
+    public static final int MAX_TRACKED = 8;
+
+    private static final int USE_PROGRAM = 0;
+    private static final int UNIFORM_1FV = 1;
+    private static final int UNIFORM_3FV = 2;
+    private static final int UNIFORM_4FV = 3;
+    private static final int UNIFORM_MATRIX_4FV = 4;
+    private static final int BIND_BUFFER = 5;
+    private static final int VERTEX_ATTRIB_POINTER = 6;
+    private static final int ENABLE_VERTEX_ATTRIB_ARRAY = 7;
+    private static final int DISABLE_VERTEX_ATTRIB_ARRAY = 8;
+    private static final int VERTEX_ATTRIB_DIVISOR = 9;
+    private static final int ENABLE = 10;
+    private static final int CLEAR_COLOR = 11;
+    private static final int LINE_WIDTH = 12;
+    private static final int CLEAR = 13;
+    private static final int DRAW_ELEMENTS = 14;
+    private static final int DRAW_ELEMENTS_INSTANCED = 15;
+    private static final int MARKER = 16;
+
+    // Source of recorded uniform values, when not a tracked array
+    private static final int COPIED = -1;
+
+    private final float[][] tracked = new float[MAX_TRACKED][];
+    private int trackedCount = 0;
+
+    private int[] commands;
+    private int commandsSize = 0;
+    private float[] values;
+    private int valuesSize = 0;
+    private Marker[] markers = new Marker[8];
+    private int markersSize = 0;
+
+    // Last recording
+    public int commandCount = 0;
+    public int drawCalls = 0;
+
+    public CommandBuffer(int initialCommands, int initialValues) {
+        commands = new int[initialCommands];
+        values = new float[initialValues];
+    }
+
+    /**
+     * Read this array on every replay instead of copying it when recorded.
+     */
+    public void track(float[] array) {
+        if (trackedCount == MAX_TRACKED) {
+            throw new IllegalStateException("At most " + MAX_TRACKED + " tracked arrays");
+        }
+        tracked[trackedCount++] = array;
+    }
+
+    /**
+     * Forget the recorded commands, to record a new frame.
+     */
+    public void reset() {
+        commandsSize = 0;
+        valuesSize = 0;
+        markersSize = 0;
+        commandCount = 0;
+        drawCalls = 0;
+    }
+
+    /**
+     * Record a marker, to run when the commands recorded so far have been issued.
+     */
+    public void mark(Marker marker) {
+        if (markersSize == markers.length) {
+            markers = Arrays.copyOf(markers, markers.length * 2);
+        }
+        markers[markersSize] = marker;
+        record(MARKER, markersSize++);
+    }
+
+    /**
+     * Run the marker once the commands issued so far on gl are: on every replay when gl is a
+     * command buffer, right away otherwise.
+     */
+    public static void mark(Gl gl, Marker marker) {
+        if (gl instanceof CommandBuffer) {
+            ((CommandBuffer) gl).mark(marker);
+        } else {
+            marker.onReplay();
+        }
+    }
+
+    public boolean isEmpty() {
+        return commandsSize == 0;
+    }
+
+    /**
+     * Issue the recorded commands, reading the tracked arrays as they are now.
+     */
+    public void replay(Gl gl) {
+        int[] c = commands;
+        int i = 0;
+        while (i < commandsSize) {
+            switch (c[i]) {
+                case USE_PROGRAM:
+                    gl.glUseProgram(c[i + 1]);
+                    i += 2;
+                    break;
+                case UNIFORM_1FV:
+                    gl.glUniform1fv(c[i + 1], c[i + 2], source(c[i + 3]), c[i + 4]);
+                    i += 6;
+                    break;
+                case UNIFORM_3FV:
+                    gl.glUniform3fv(c[i + 1], c[i + 2], source(c[i + 3]), c[i + 4]);
+                    i += 6;
+                    break;
+                case UNIFORM_4FV:
+                    gl.glUniform4fv(c[i + 1], c[i + 2], source(c[i + 3]), c[i + 4]);
+                    i += 6;
+                    break;
+                case UNIFORM_MATRIX_4FV:
+                    gl.glUniformMatrix4fv(c[i + 1], c[i + 2], c[i + 5] != 0, source(c[i + 3]), c[i + 4]);
+                    i += 6;
+                    break;
+                case BIND_BUFFER:
+                    gl.glBindBuffer(c[i + 1], c[i + 2]);
+                    i += 3;
+                    break;
+                case VERTEX_ATTRIB_POINTER:
+                    gl.glVertexAttribPointer(c[i + 1], c[i + 2], c[i + 3], c[i + 4] != 0, c[i + 5], c[i + 6]);
+                    i += 7;
+                    break;
+                case ENABLE_VERTEX_ATTRIB_ARRAY:
+                    gl.glEnableVertexAttribArray(c[i + 1]);
+                    i += 2;
+                    break;
+                case DISABLE_VERTEX_ATTRIB_ARRAY:
+                    gl.glDisableVertexAttribArray(c[i + 1]);
+                    i += 2;
+                    break;
+                case VERTEX_ATTRIB_DIVISOR:
+                    gl.glVertexAttribDivisor(c[i + 1], c[i + 2]);
+                    i += 3;
+                    break;
+                case ENABLE:
+                    gl.glEnable(c[i + 1]);
+                    i += 2;
+                    break;
+                case CLEAR_COLOR:
+                    int v = c[i + 1];
+                    gl.glClearColor(values[v], values[v + 1], values[v + 2], values[v + 3]);
+                    i += 2;
+                    break;
+                case LINE_WIDTH:
+                    gl.glLineWidth(values[c[i + 1]]);
+                    i += 2;
+                    break;
+                case CLEAR:
+                    gl.glClear(c[i + 1]);
+                    i += 2;
+                    break;
+                case DRAW_ELEMENTS:
+                    gl.glDrawElements(c[i + 1], c[i + 2], c[i + 3], c[i + 4]);
+                    i += 5;
+                    break;
+                case DRAW_ELEMENTS_INSTANCED:
+                    gl.glDrawElementsInstanced(c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+                    i += 6;
+                    break;
+                case MARKER:
+                    markers[c[i + 1]].onReplay();
+                    i += 2;
+                    break;
+                default:
+                    throw new IllegalStateException("Corrupted command buffer at " + i);
+            }
+        }
+    }
+
+    private float[] source(int source) {
+        return source == COPIED ? values : tracked[source];
+    }
+
+    private int indexOfTracked(float[] array) {
+        for (int i = 0; i < trackedCount; i++) {
+            if (tracked[i] == array) {
+                return i;
+            }
+        }
+        return COPIED;
+    }
+
+    // Room for one more command, this many ints long
+    private void reserve(int size) {
+        commandCount++;
+        if (commandsSize + size > commands.length) {
+            commands = Arrays.copyOf(commands, Math.max(commands.length * 2, commandsSize + size));
+        }
+    }
+
+    // Copy the values at the end of the value array, and return where they start
+    private int copy(float[] array, int offset, int length) {
+        if (valuesSize + length > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, valuesSize + length));
+        }
+        int start = valuesSize;
+        System.arraycopy(array, offset, values, start, length);
+        valuesSize += length;
+        return start;
+    }
+
+    private int copy(float value) {
+        if (valuesSize == values.length) {
+            values = Arrays.copyOf(values, values.length * 2 + 1);
+        }
+        values[valuesSize] = value;
+        return valuesSize++;
+    }
+
+    private void record(int command, int a) {
+        reserve(2);
+        commands[commandsSize++] = command;
+        commands[commandsSize++] = a;
+    }
+
+    private void record(int command, int a, int b) {
+        reserve(3);
+        commands[commandsSize++] = command;
+        commands[commandsSize++] = a;
+        commands[commandsSize++] = b;
+    }
+
+    private void recordUniform(int command, int location, int count, float[] value, int offset, int componentCount, boolean transpose) {
+        int source = indexOfTracked(value);
+        if (source == COPIED) {
+            offset = copy(value, offset, count * componentCount);
+        }
+
+        reserve(6);
+        commands[commandsSize++] = command;
+        commands[commandsSize++] = location;
+        commands[commandsSize++] = count;
+        commands[commandsSize++] = source;
+        commands[commandsSize++] = offset;
+        commands[commandsSize++] = transpose ? 1 : 0;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record(USE_PROGRAM, program);
+    }
+
+    @Override
+    public void glUniform1fv(int location, int count, float[] value, int offset) {
+        recordUniform(UNIFORM_1FV, location, count, value, offset, 1, false);
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] value, int offset) {
+        recordUniform(UNIFORM_3FV, location, count, value, offset, 3, false);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] value, int offset) {
+        recordUniform(UNIFORM_4FV, location, count, value, offset, 4, false);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        recordUniform(UNIFORM_MATRIX_4FV, location, count, value, offset, 16, transpose);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record(BIND_BUFFER, target, buffer);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        reserve(7);
+        commands[commandsSize++] = VERTEX_ATTRIB_POINTER;
+        commands[commandsSize++] = index;
+        commands[commandsSize++] = size;
+        commands[commandsSize++] = type;
+        commands[commandsSize++] = normalized ? 1 : 0;
+        commands[commandsSize++] = stride;
+        commands[commandsSize++] = offset;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record(ENABLE_VERTEX_ATTRIB_ARRAY, index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record(DISABLE_VERTEX_ATTRIB_ARRAY, index);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        record(VERTEX_ATTRIB_DIVISOR, index, divisor);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        record(ENABLE, cap);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        int start = copy(red);
+        copy(green);
+        copy(blue);
+        copy(alpha);
+        record(CLEAR_COLOR, start);
+    }
+
+    @Override
+    public void glLineWidth(float width) {
+        record(LINE_WIDTH, copy(width));
+    }
+
+    @Override
+    public void glClear(int mask) {
+        record(CLEAR, mask);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        reserve(5);
+        commands[commandsSize++] = DRAW_ELEMENTS;
+        commands[commandsSize++] = mode;
+        commands[commandsSize++] = count;
+        commands[commandsSize++] = type;
+        commands[commandsSize++] = offset;
+        drawCalls++;
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        reserve(6);
+        commands[commandsSize++] = DRAW_ELEMENTS_INSTANCED;
+        commands[commandsSize++] = mode;
+        commands[commandsSize++] = count;
+        commands[commandsSize++] = type;
+        commands[commandsSize++] = offset;
+        commands[commandsSize++] = instanceCount;
+        drawCalls++;
+    }
+
+    private static UnsupportedOperationException notRecorded(String name) {
+        return new UnsupportedOperationException(name + " can't be recorded, call it on the real GL");
+    }
+
+    @Override
+    public int glGetError() {
+        throw notRecorded("glGetError");
+    }
+
+    @Override
+    public String glGetString(int name) {
+        throw notRecorded("glGetString");
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        throw notRecorded("glGetIntegerv");
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        throw notRecorded("glCreateShader");
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        throw notRecorded("glShaderSource");
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        throw notRecorded("glCompileShader");
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        throw notRecorded("glGetShaderiv");
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        throw notRecorded("glGetShaderInfoLog");
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        throw notRecorded("glDeleteShader");
+    }
+
+    @Override
+    public int glCreateProgram() {
+        throw notRecorded("glCreateProgram");
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        throw notRecorded("glAttachShader");
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        throw notRecorded("glProgramParameteri");
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        throw notRecorded("glLinkProgram");
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        throw notRecorded("glGetProgramiv");
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        throw notRecorded("glGetProgramInfoLog");
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        throw notRecorded("glDeleteProgram");
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset, int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        throw notRecorded("glGetProgramBinary");
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        throw notRecorded("glProgramBinary");
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        throw notRecorded("glGetAttribLocation");
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        throw notRecorded("glGetUniformLocation");
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        throw notRecorded("glGenBuffers");
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        throw notRecorded("glBufferData");
+    }
+}
@@ -0,0 +1,122 @@
+package fr.neamar.aloneindarkness.gl;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES calls the game makes, named and typed after android.opengl.GLES20 and GLES30.
+ * <p/>
+ * <p>Rendering code only talks to this interface, so it can run against the device
+ * ({@code AndroidGl}), count what it does ({@link TracingGl}) or run without any GPU
+ * ({@link RecordingGl}).
+ */
+public interface Gl {
+    int GL_NO_ERROR = 0;
+    int GL_TRUE = 1;
+    int GL_LINES = 0x0001;
+    int GL_TRIANGLES = 0x0004;
+    int GL_UNSIGNED_SHORT = 0x1403;
+    int GL_FLOAT = 0x1406;
+    int GL_INVALID_ENUM = 0x0500;
+    int GL_VENDOR = 0x1F00;
+    int GL_RENDERER = 0x1F01;
+    int GL_VERSION = 0x1F02;
+    int GL_ARRAY_BUFFER = 0x8892;
+    int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    int GL_STREAM_DRAW = 0x88E0;
+    int GL_STATIC_DRAW = 0x88E4;
+    int GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+    int GL_ALIASED_LINE_WIDTH_RANGE = 0x846E;
+    int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+    int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+    int GL_FRAGMENT_SHADER = 0x8B30;
+    int GL_VERTEX_SHADER = 0x8B31;
+    int GL_COMPILE_STATUS = 0x8B81;
+    int GL_LINK_STATUS = 0x8B82;
+
+    int glGetError();
+
+    String glGetString(int name);
+
+    void glGetIntegerv(int pname, int[] params, int offset);
+
+    // Shaders and programs
+
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, String source);
+
+    void glCompileShader(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glDeleteShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    // OpenGL ES 3 only
+    void glProgramParameteri(int program, int pname, int value);
+
+    void glLinkProgram(int program);
+
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+    String glGetProgramInfoLog(int program);
+
+    void glDeleteProgram(int program);
+
+    // OpenGL ES 3 only
+    void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset, int[] binaryFormat, int binaryFormatOffset, Buffer binary);
+
+    // OpenGL ES 3 only
+    void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+
+    void glUseProgram(int program);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    // Uniforms
+
+    void glUniform1fv(int location, int count, float[] value, int offset);
+
+    void glUniform3fv(int location, int count, float[] value, int offset);
+
+    void glUniform4fv(int location, int count, float[] value, int offset);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    // Buffers and attributes
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glVertexAttribDivisor(int index, int divisor);
+
+    // Frame
+
+    void glEnable(int cap);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glLineWidth(float width);
+
+    void glClear(int mask);
+
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount);
+}
@@ -0,0 +1,93 @@
+package fr.neamar.aloneindarkness.gl;
+
+/**
+ * Decides when glGetError is called.
+ * <p/>
+ * <p>glGetError may wait for the GPU to catch up, which costs a lot on tiled mobile GPUs.
+ * {@link #MODE_RELEASE} never checks during frames, {@link #MODE_SAMPLED} checks one frame out of
+ * {@link #sampleInterval}, and {@link #MODE_TRACING} checks every frame, on top of the per-call
+ * checks of a {@link TracingGl}.
+ * <p/>
+ * <p>One-off setup code (uploads, shader compilation) uses {@link #checkAlways(String)}, which
+ * costs nothing per frame.
+ */
+public class GlChecker {
+    public static final int MODE_RELEASE = 0;
+    public static final int MODE_SAMPLED = 1;
+    public static final int MODE_TRACING = 2;
+
+    public static final String[] MODE_NAMES = {"release", "sampled", "tracing"};
+
+    public final int mode;
+    public final int sampleInterval;
+
+    private final Gl gl;
+
+    private long frameIndex = 0;
+    private boolean checking;
+
+    public GlChecker(Gl gl, int mode, int sampleInterval) {
+        this.gl = gl;
+        this.mode = mode;
+        this.sampleInterval = sampleInterval;
+        checking = mode != MODE_RELEASE;
+    }
+
+    /**
+     * Wrap the device GL as the mode requires.
+     *
+     * @return a {@link TracingGl} checking every call in {@link #MODE_TRACING}, gl otherwise.
+     */
+    public static Gl wrap(Gl gl, int mode) {
+        return mode == MODE_TRACING ? new TracingGl(gl, true) : gl;
+    }
+
+    public void beginFrame() {
+        frameIndex++;
+        checking = mode == MODE_TRACING || (mode == MODE_SAMPLED && frameIndex % sampleInterval == 0);
+    }
+
+    /**
+     * @return true if errors are checked during the current frame.
+     */
+    public boolean isChecking() {
+        return checking;
+    }
+
+    /**
+     * Check for GL errors if the current frame is sampled.
+     *
+     * @param label Label to report in case of error.
+     */
+    public void check(String label) {
+        if (checking) {
+            checkAlways(label);
+        }
+    }
+
+    /**
+     * @return a marker checking for GL errors if the current frame is sampled, for commands that
+     * may be recorded in a {@link CommandBuffer}: their errors only show once they are replayed.
+     */
+    public CommandBuffer.Marker checkpoint(final String label) {
+        return new CommandBuffer.Marker() {
+            @Override
+            public void onReplay() {
+                check(label);
+            }
+        };
+    }
+
+    /**
+     * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
+     *
+     * @param label Label to report in case of error.
+     */
+    public void checkAlways(String label) {
+        int error;
+        //noinspection LoopStatementThatDoesntLoop
+        while ((error = gl.glGetError()) != Gl.GL_NO_ERROR) {
+            throw new RuntimeException(label + ": glError " + error);
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package fr.neamar.aloneindarkness.gl;
+
+import java.nio.Buffer;
+
+/**
+ * Remembers the GL state it has set, and drops calls that would not change it: program,
+ * buffer bindings, enabled capabilities and vertex attribute arrays, attribute pointers and
+ * divisors, and single uniform values.
+ * <p/>
+ * <p>The cache is only right if every GL call goes through it. Code outside the game (the GVR
+ * distortion pass between frames) may change the state behind our back, so {@link #invalidate()}
+ * must be called at the start of each frame and whenever the context is recreated.
+ * <p/>
+ * <p>Uniforms are cached per program for the first {@link #MAX_PROGRAMS} programs used, at
+ * locations below {@link #MAX_UNIFORM_LOCATIONS}. Uniform arrays (count above 1) are always
+ * uploaded.
+ */
+public class GlStateCache implements Gl {
+    public static final int MAX_ATTRIBS = 16;
+    public static final int MAX_CAPS = 4;
+    public static final int MAX_PROGRAMS = 8;
+    public static final int MAX_UNIFORM_LOCATIONS = 32;
+    // Largest single uniform, a mat4
+    public static final int MAX_UNIFORM_SIZE = 16;
+
+    private static final int UNKNOWN = -1;
+
+    private final Gl gl;
+
+    private int program;
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+
+    private final int[] enabledCaps = new int[MAX_CAPS];
+    private int enabledCapCount;
+
+    // 1 if enabled, 0 if disabled, or UNKNOWN
+    private final int[] attribEnabled = new int[MAX_ATTRIBS];
+    private final int[] attribDivisors = new int[MAX_ATTRIBS];
+    // Buffer, size, type, normalized, stride and offset of each attribute pointer
+    private final int[][] attribPointers = new int[MAX_ATTRIBS][6];
+
+    private final int[] programs = new int[MAX_PROGRAMS];
+    private int programCount = 0;
+    private final float[][][] uniformValues = new float[MAX_PROGRAMS][MAX_UNIFORM_LOCATIONS][MAX_UNIFORM_SIZE];
+    private final boolean[][] uniformKnown = new boolean[MAX_PROGRAMS][MAX_UNIFORM_LOCATIONS];
+
+    // Calls dropped since the cache was created
+    public long elidedCalls = 0;
+
+    public GlStateCache(Gl gl) {
+        this.gl = gl;
+        invalidate();
+    }
+
+    /**
+     * Forget the GL state, the next calls are all forwarded. Uniform values survive: they belong
+     * to programs, only relinking or a new context changes them.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        enabledCapCount = 0;
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            attribEnabled[i] = UNKNOWN;
+            attribDivisors[i] = UNKNOWN;
+            attribPointers[i][0] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Forget everything, for a new GL context.
+     */
+    public void reset() {
+        invalidate();
+        for (int i = 0; i < programCount; i++) {
+            forgetUniforms(i);
+        }
+        programCount = 0;
+    }
+
+    private void forgetUniforms(int slot) {
+        for (int location = 0; location < MAX_UNIFORM_LOCATIONS; location++) {
+            uniformKnown[slot][location] = false;
+        }
+    }
+
+    private int programSlot(int program) {
+        for (int i = 0; i < programCount; i++) {
+            if (programs[i] == program) {
+                return i;
+            }
+        }
+        if (programCount < MAX_PROGRAMS) {
+            programs[programCount] = program;
+            return programCount++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the uniform already holds these values, otherwise remember them.
+     */
+    private boolean isUniformSet(int location, int count, int size, float[] value, int offset) {
+        int slot = program == UNKNOWN ? -1 : programSlot(program);
+        if (slot == -1 || location < 0) {
+            return false;
+        }
+
+        if (count != 1) {
+            // Arrays are not cached, but overwrite the locations they span.
+            for (int i = location; i < location + count && i < MAX_UNIFORM_LOCATIONS; i++) {
+                uniformKnown[slot][i] = false;
+            }
+            return false;
+        }
+        if (location >= MAX_UNIFORM_LOCATIONS) {
+            return false;
+        }
+
+        float[] cached = uniformValues[slot][location];
+        if (uniformKnown[slot][location]) {
+            boolean equal = true;
+            for (int i = 0; i < size && equal; i++) {
+                // Compare bits, so NaN and -0 are not mistaken
+                equal = Float.floatToRawIntBits(cached[i]) == Float.floatToRawIntBits(value[offset + i]);
+            }
+            if (equal) {
+                elidedCalls++;
+                return true;
+            }
+        }
+
+        System.arraycopy(value, offset, cached, 0, size);
+        uniformKnown[slot][location] = true;
+        return false;
+    }
+
+    @Override
+    public int glGetError() {
+        return gl.glGetError();
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return gl.glGetString(name);
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        gl.glGetIntegerv(pname, params, offset);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return gl.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        gl.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        gl.glCompileShader(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        gl.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return gl.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        gl.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return gl.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        gl.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        gl.glProgramParameteri(program, pname, value);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        gl.glLinkProgram(program);
+
+        // Linking resets the uniforms
+        int slot = programSlot(program);
+        if (slot != -1) {
+            forgetUniforms(slot);
+        }
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        gl.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return gl.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        gl.glDeleteProgram(program);
+
+        // The name may be reused by the next program
+        int slot = programSlot(program);
+        if (slot != -1) {
+            forgetUniforms(slot);
+        }
+        if (this.program == program) {
+            this.program = UNKNOWN;
+        }
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset, int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        gl.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        gl.glProgramBinary(program, binaryFormat, binary, length);
+
+        // Like linking, loading a binary resets the uniforms
+        int slot = programSlot(program);
+        if (slot != -1) {
+            forgetUniforms(slot);
+        }
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (this.program == program) {
+            elidedCalls++;
+            return;
+        }
+        this.program = program;
+        gl.glUseProgram(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return gl.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return gl.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glUniform1fv(int location, int count, float[] value, int offset) {
+        if (!isUniformSet(location, count, 1, value, offset)) {
+            gl.glUniform1fv(location, count, value, offset);
+        }
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] value, int offset) {
+        if (!isUniformSet(location, count, 3, value, offset)) {
+            gl.glUniform3fv(location, count, value, offset);
+        }
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] value, int offset) {
+        if (!isUniformSet(location, count, 4, value, offset)) {
+            gl.glUniform4fv(location, count, value, offset);
+        }
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        // Transposed uploads are not used, never cache them.
+        if (transpose || !isUniformSet(location, count, 16, value, offset)) {
+            gl.glUniformMatrix4fv(location, count, transpose, value, offset);
+        }
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        gl.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (target == GL_ARRAY_BUFFER) {
+            if (arrayBuffer == buffer) {
+                elidedCalls++;
+                return;
+            }
+            arrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            if (elementArrayBuffer == buffer) {
+                elidedCalls++;
+                return;
+            }
+            elementArrayBuffer = buffer;
+        }
+        gl.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        gl.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        if (index < 0 || index >= MAX_ATTRIBS || arrayBuffer == UNKNOWN) {
+            gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+            return;
+        }
+
+        int[] pointer = attribPointers[index];
+        int normalizedFlag = normalized ? 1 : 0;
+        if (pointer[0] == arrayBuffer && pointer[1] == size && pointer[2] == type
+                && pointer[3] == normalizedFlag && pointer[4] == stride && pointer[5] == offset) {
+            elidedCalls++;
+            return;
+        }
+
+        pointer[0] = arrayBuffer;
+        pointer[1] = size;
+        pointer[2] = type;
+        pointer[3] = normalizedFlag;
+        pointer[4] = stride;
+        pointer[5] = offset;
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        setAttribEnabled(index, 1);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        setAttribEnabled(index, 0);
+    }
+
+    private void setAttribEnabled(int index, int enabled) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            if (attribEnabled[index] == enabled) {
+                elidedCalls++;
+                return;
+            }
+            attribEnabled[index] = enabled;
+        }
+
+        if (enabled == 1) {
+            gl.glEnableVertexAttribArray(index);
+        } else {
+            gl.glDisableVertexAttribArray(index);
+        }
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        if (index >= 0 && index < MAX_ATTRIBS) {
+            if (attribDivisors[index] == divisor) {
+                elidedCalls++;
+                return;
+            }
+            attribDivisors[index] = divisor;
+        }
+        gl.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        for (int i = 0; i < enabledCapCount; i++) {
+            if (enabledCaps[i] == cap) {
+                elidedCalls++;
+                return;
+            }
+        }
+        if (enabledCapCount < MAX_CAPS) {
+            enabledCaps[enabledCapCount++] = cap;
+        }
+        gl.glEnable(cap);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        gl.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glLineWidth(float width) {
+        gl.glLineWidth(width);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        gl.glClear(mask);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        gl.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        gl.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+    }
+}
@@ -0,0 +1,255 @@
+package fr.neamar.aloneindarkness.gl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Builds shader programs, and keeps their compiled binaries on disk so a new GL context does
+ * not compile and link them again.
+ * <p/>
+ * <p>Binaries are keyed by a hash of both shader sources and of the driver identifiers (vendor,
+ * renderer and version strings): a driver update or a shader change is a cache miss. Binaries
+ * the driver rejects are deleted, and the program is compiled from source as if there was no
+ * cache.
+ * <p/>
+ * <p>Program binaries need OpenGL ES 3. On OpenGL ES 2, programs are always compiled: Android
+ * has no Java binding for the GL_OES_get_program_binary extension.
+ */
+public class ProgramCache {
+    private static final int MAGIC = 0x41494450;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gl gl;
+    private final File directory;
+
+    private String driver;
+    private boolean binarySupported = false;
+
+    private final int[] status = new int[1];
+
+    public int hits = 0;
+    public int misses = 0;
+    public long loadNanos = 0;
+    public long compileNanos = 0;
+
+    /**
+     * @param directory where binaries are stored, or null to always compile
+     */
+    public ProgramCache(Gl gl, File directory) {
+        this.gl = gl;
+        this.directory = directory;
+    }
+
+    /**
+     * Read the driver identifiers. Must be called for each new context, before building programs.
+     */
+    public void onContextCreated() {
+        String version = gl.glGetString(Gl.GL_VERSION);
+        driver = gl.glGetString(Gl.GL_VENDOR) + "\n" + gl.glGetString(Gl.GL_RENDERER) + "\n" + version;
+
+        binarySupported = false;
+        // Not an OpenGL ES 2 enum: querying it there leaves an error behind
+        if (directory != null && version != null && version.startsWith("OpenGL ES 3")) {
+            gl.glGetIntegerv(Gl.GL_NUM_PROGRAM_BINARY_FORMATS, status, 0);
+            binarySupported = status[0] > 0;
+        }
+
+        if (binarySupported && !directory.isDirectory() && !directory.mkdirs()) {
+            binarySupported = false;
+        }
+    }
+
+    public boolean isBinarySupported() {
+        return binarySupported;
+    }
+
+    /**
+     * @return a linked program running these shaders.
+     */
+    public int getProgram(String vertexSource, String fragmentSource) {
+        File file = binarySupported ? new File(directory, key(vertexSource, fragmentSource)) : null;
+
+        if (file != null && file.isFile()) {
+            long start = System.nanoTime();
+            int program = load(file);
+            if (program != 0) {
+                hits++;
+                loadNanos += System.nanoTime() - start;
+                return program;
+            }
+        }
+
+        long start = System.nanoTime();
+        int program = compile(vertexSource, fragmentSource);
+        misses++;
+        compileNanos += System.nanoTime() - start;
+
+        if (file != null) {
+            save(file, program);
+        }
+        return program;
+    }
+
+    /**
+     * @return hit rate and time spent, for the logs.
+     */
+    public String getReport() {
+        return String.format(Locale.US, "Programs: %d from cache in %.1f ms, %d compiled in %.1f ms, binaries %s",
+                hits, loadNanos / 1e6, misses, compileNanos / 1e6, binarySupported ? "supported" : "not supported");
+    }
+
+    private String key(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(driver.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(vertexSource.getBytes(UTF_8));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes(UTF_8));
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format(Locale.US, "%02x", b));
+            }
+            return key.append(".bin").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // 0 if the binary could not be used
+    private int load(File file) {
+        int format;
+        ByteBuffer binary;
+        try {
+            DataInputStream input = new DataInputStream(new FileInputStream(file));
+            try {
+                if (input.readInt() != MAGIC) {
+                    throw new IOException("Not a program binary");
+                }
+                format = input.readInt();
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+
+                binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+                binary.put(bytes).position(0);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return 0;
+        }
+
+        int program = gl.glCreateProgram();
+        gl.glProgramBinary(program, format, binary, binary.capacity());
+        gl.glGetProgramiv(program, Gl.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            // Rejected by the driver, e.g. after an update keeping the same version string.
+            gl.glDeleteProgram(program);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return 0;
+        }
+        return program;
+    }
+
+    private void save(File file, int program) {
+        gl.glGetProgramiv(program, Gl.GL_PROGRAM_BINARY_LENGTH, status, 0);
+        int length = status[0];
+        if (length <= 0) {
+            return;
+        }
+
+        ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        int[] written = new int[1];
+        int[] format = new int[1];
+        gl.glGetProgramBinary(program, length, written, 0, format, 0, binary);
+
+        byte[] bytes = new byte[written[0]];
+        binary.position(0);
+        binary.get(bytes);
+
+        // Written aside then renamed, so a crash never leaves a truncated binary behind.
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new FileOutputStream(temporary));
+            try {
+                output.writeInt(MAGIC);
+                output.writeInt(format[0]);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            } finally {
+                output.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Can't rename " + temporary);
+            }
+        } catch (IOException e) {
+            // Not cached, the program will be compiled again next time.
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+        }
+    }
+
+    private int compile(String vertexSource, String fragmentSource) {
+        int vertexShader = compileShader(Gl.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = compileShader(Gl.GL_FRAGMENT_SHADER, fragmentSource);
+
+        int program = gl.glCreateProgram();
+        gl.glAttachShader(program, vertexShader);
+        gl.glAttachShader(program, fragmentShader);
+        if (binarySupported) {
+            // Without the hint, the driver may not keep a binary to hand back
+            gl.glProgramParameteri(program, Gl.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, Gl.GL_TRUE);
+        }
+        gl.glLinkProgram(program);
+
+        // Only flagged for deletion, they live as long as the program.
+        gl.glDeleteShader(vertexShader);
+        gl.glDeleteShader(fragmentShader);
+
+        gl.glGetProgramiv(program, Gl.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = gl.glGetProgramInfoLog(program);
+            gl.glDeleteProgram(program);
+            throw new RuntimeException("Error linking program: " + log);
+        }
+        return program;
+    }
+
+    /**
+     * Converts a shader source into an OpenGL ES shader.
+     *
+     * @param type The type of shader we will be creating.
+     * @return The shader object handler.
+     */
+    private int compileShader(int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, source);
+        gl.glCompileShader(shader);
+
+        // Get the compilation status.
+        gl.glGetShaderiv(shader, Gl.GL_COMPILE_STATUS, status, 0);
+
+        // If the compilation failed, delete the shader.
+        if (status[0] == 0) {
+            String log = gl.glGetShaderInfoLog(shader);
+            gl.glDeleteShader(shader);
+            throw new RuntimeException("Error compiling shader: " + log);
+        }
+
+        return shader;
+    }
+}
@@ -0,0 +1,364 @@
+package fr.neamar.aloneindarkness.gl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link Gl} without any GPU behind it: calls only update counters and the bound state, so
+ * rendering code can run on a plain JVM and be checked for what it would draw.
+ * <p/>
+ * <p>Shaders always compile, names get increasing handles, and locations are handed out per
+ * name. Attribute locations are four apart, enough for a mat4 attribute. OpenGL ES 3 versions
+ * support program binaries, made of a single int, for programs linked with
+ * {@link #GL_PROGRAM_BINARY_RETRIEVABLE_HINT} set: without it, a driver may not keep them.
+ * OpenGL ES 2 versions raise {@link #GL_INVALID_ENUM} when queried for OpenGL ES 3 values.
+ */
+public class RecordingGl implements Gl {
+    private final String version;
+
+    private int nextHandle = 1;
+    private int nextAttribLocation = 0;
+    private int nextUniformLocation = 0;
+    private final Map<String, Integer> attribLocations = new HashMap<>();
+    private final Map<String, Integer> uniformLocations = new HashMap<>();
+    private final Set<Integer> retrievablePrograms = new HashSet<>();
+
+    private int pendingError = GL_NO_ERROR;
+
+    // Widest line of GL_ALIASED_LINE_WIDTH_RANGE, OpenGL ES only guarantees 1
+    public int maxLineWidth = 8;
+
+    // Bound state
+    public int program = 0;
+    public int arrayBuffer = 0;
+    public int elementArrayBuffer = 0;
+
+    public int drawCalls = 0;
+    public int instancedDrawCalls = 0;
+    // Vertices drawn through indices, all instances included
+    public long indicesDrawn = 0;
+    public long instancesDrawn = 0;
+    public int programSwitches = 0;
+    public int bufferUploads = 0;
+    public int uniformUploads = 0;
+    public int programsLinked = 0;
+    public int programBinariesLoaded = 0;
+
+    // When set, every call that draws is appended to it, one per line, along with its arguments
+    // and uniform values: two ways of drawing the same thing log the same.
+    public StringBuilder log;
+
+    /**
+     * @param version answered to glGetString(GL_VERSION), e.g. "OpenGL ES 3.0"
+     */
+    public RecordingGl(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Reset the counters, not the bound state.
+     */
+    public void resetCounters() {
+        drawCalls = 0;
+        instancedDrawCalls = 0;
+        indicesDrawn = 0;
+        instancesDrawn = 0;
+        programSwitches = 0;
+        bufferUploads = 0;
+        uniformUploads = 0;
+        programsLinked = 0;
+        programBinariesLoaded = 0;
+    }
+
+    private void log(String call) {
+        log.append(call).append('\n');
+    }
+
+    private static String values(float[] array, int offset, int length) {
+        return Arrays.toString(Arrays.copyOfRange(array, offset, offset + length));
+    }
+
+    /**
+     * Make the next glGetError report an error, to exercise error handling.
+     */
+    public void raiseError(int error) {
+        pendingError = error;
+    }
+
+    @Override
+    public int glGetError() {
+        int error = pendingError;
+        pendingError = GL_NO_ERROR;
+        return error;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return name == GL_VERSION ? version : "";
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        if (pname == GL_ALIASED_LINE_WIDTH_RANGE) {
+            params[offset] = 1;
+            params[offset + 1] = maxLineWidth;
+        } else if (pname == GL_NUM_PROGRAM_BINARY_FORMATS) {
+            if (version.startsWith("OpenGL ES 3")) {
+                params[offset] = 1;
+            } else {
+                pendingError = GL_INVALID_ENUM;
+            }
+        } else {
+            params[offset] = 0;
+        }
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return nextHandle++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        params[offset] = 1;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return nextHandle++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        if (pname == GL_PROGRAM_BINARY_RETRIEVABLE_HINT && value == GL_TRUE) {
+            retrievablePrograms.add(program);
+        } else {
+            retrievablePrograms.remove(program);
+        }
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        programsLinked++;
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        if (pname == GL_PROGRAM_BINARY_LENGTH) {
+            params[offset] = retrievablePrograms.contains(program) ? 4 : 0;
+        } else {
+            params[offset] = 1;
+        }
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return "";
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset, int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        ((ByteBuffer) binary).putInt(0, program);
+        length[lengthOffset] = 4;
+        binaryFormat[binaryFormatOffset] = 1;
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        programBinariesLoaded++;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        if (log != null) {
+            log("glUseProgram " + program);
+        }
+        if (this.program != program) {
+            programSwitches++;
+        }
+        this.program = program;
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        Integer location = attribLocations.get(name);
+        if (location == null) {
+            location = nextAttribLocation;
+            nextAttribLocation += 4;
+            attribLocations.put(name, location);
+        }
+        return location;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        Integer location = uniformLocations.get(name);
+        if (location == null) {
+            location = nextUniformLocation++;
+            uniformLocations.put(name, location);
+        }
+        return location;
+    }
+
+    @Override
+    public void glUniform1fv(int location, int count, float[] value, int offset) {
+        if (log != null) {
+            log("glUniform1fv " + location + " " + values(value, offset, count * 1));
+        }
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] value, int offset) {
+        if (log != null) {
+            log("glUniform3fv " + location + " " + values(value, offset, count * 3));
+        }
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] value, int offset) {
+        if (log != null) {
+            log("glUniform4fv " + location + " " + values(value, offset, count * 4));
+        }
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        if (log != null) {
+            log("glUniformMatrix4fv " + location + " " + transpose + " " + values(value, offset, count * 16));
+        }
+        uniformUploads++;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = nextHandle++;
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (log != null) {
+            log("glBindBuffer " + target + " " + buffer);
+        }
+        if (target == GL_ARRAY_BUFFER) {
+            arrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            elementArrayBuffer = buffer;
+        }
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        bufferUploads++;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        if (log != null) {
+            log("glVertexAttribPointer " + index + " " + size + " " + type + " " + normalized + " " + stride + " " + offset);
+        }
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        if (log != null) {
+            log("glEnableVertexAttribArray " + index);
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        if (log != null) {
+            log("glDisableVertexAttribArray " + index);
+        }
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        if (log != null) {
+            log("glVertexAttribDivisor " + index + " " + divisor);
+        }
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        if (log != null) {
+            log("glEnable " + cap);
+        }
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        if (log != null) {
+            log("glClearColor " + red + " " + green + " " + blue + " " + alpha);
+        }
+    }
+
+    @Override
+    public void glLineWidth(float width) {
+        if (log != null) {
+            log("glLineWidth " + width);
+        }
+    }
+
+    @Override
+    public void glClear(int mask) {
+        if (log != null) {
+            log("glClear " + mask);
+        }
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        if (log != null) {
+            log("glDrawElements " + mode + " " + count + " " + type + " " + offset);
+        }
+        drawCalls++;
+        indicesDrawn += count;
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        if (log != null) {
+            log("glDrawElementsInstanced " + mode + " " + count + " " + type + " " + offset + " " + instanceCount);
+        }
+        drawCalls++;
+        instancedDrawCalls++;
+        indicesDrawn += (long) count * instanceCount;
+        instancesDrawn += instanceCount;
+    }
+}
@@ -0,0 +1,310 @@
+package fr.neamar.aloneindarkness.gl;
+
+import java.nio.Buffer;
+
+/**
+ * Counts the calls, state changes, uniform uploads and draw calls made to another {@link Gl},
+ * frame by frame.
+ * <p/>
+ * <p>When checking errors, glGetError is called after every single call so the failing one is
+ * named in the exception. This stalls the GPU pipeline: it is meant for debugging, never
+ * for release builds.
+ */
+public class TracingGl implements Gl {
+    private final Gl gl;
+    private final boolean checkEveryCall;
+
+    // Current frame
+    private int calls = 0;
+    private int stateChanges = 0;
+    private int uniformUploads = 0;
+    private int drawCalls = 0;
+
+    // Last frame ended by endFrame()
+    public int frameCalls = 0;
+    public int frameStateChanges = 0;
+    public int frameUniformUploads = 0;
+    public int frameDrawCalls = 0;
+
+    public TracingGl(Gl gl, boolean checkEveryCall) {
+        this.gl = gl;
+        this.checkEveryCall = checkEveryCall;
+    }
+
+    /**
+     * Make the counts of the frame available in the frame* fields, and start counting a new one.
+     */
+    public void endFrame() {
+        frameCalls = calls;
+        frameStateChanges = stateChanges;
+        frameUniformUploads = uniformUploads;
+        frameDrawCalls = drawCalls;
+
+        calls = 0;
+        stateChanges = 0;
+        uniformUploads = 0;
+        drawCalls = 0;
+    }
+
+    private void called(String name) {
+        calls++;
+        if (!checkEveryCall) {
+            return;
+        }
+
+        int error = gl.glGetError();
+        if (error != GL_NO_ERROR) {
+            throw new RuntimeException(name + ": glError " + error);
+        }
+    }
+
+    private void stateChanged(String name) {
+        stateChanges++;
+        called(name);
+    }
+
+    private void uniformUploaded(String name) {
+        uniformUploads++;
+        called(name);
+    }
+
+    private void drawn(String name) {
+        drawCalls++;
+        called(name);
+    }
+
+    @Override
+    public int glGetError() {
+        // Not counted, it would distort the figures when checking errors.
+        return gl.glGetError();
+    }
+
+    @Override
+    public String glGetString(int name) {
+        String value = gl.glGetString(name);
+        called("glGetString");
+        return value;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        gl.glGetIntegerv(pname, params, offset);
+        called("glGetIntegerv");
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        int shader = gl.glCreateShader(type);
+        called("glCreateShader");
+        return shader;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String source) {
+        gl.glShaderSource(shader, source);
+        called("glShaderSource");
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        gl.glCompileShader(shader);
+        called("glCompileShader");
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        gl.glGetShaderiv(shader, pname, params, offset);
+        called("glGetShaderiv");
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        String log = gl.glGetShaderInfoLog(shader);
+        called("glGetShaderInfoLog");
+        return log;
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        gl.glDeleteShader(shader);
+        called("glDeleteShader");
+    }
+
+    @Override
+    public int glCreateProgram() {
+        int program = gl.glCreateProgram();
+        called("glCreateProgram");
+        return program;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        gl.glAttachShader(program, shader);
+        called("glAttachShader");
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        gl.glProgramParameteri(program, pname, value);
+        called("glProgramParameteri");
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        gl.glLinkProgram(program);
+        called("glLinkProgram");
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        gl.glGetProgramiv(program, pname, params, offset);
+        called("glGetProgramiv");
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        String log = gl.glGetProgramInfoLog(program);
+        called("glGetProgramInfoLog");
+        return log;
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        gl.glDeleteProgram(program);
+        called("glDeleteProgram");
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset, int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+        gl.glGetProgramBinary(program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+        called("glGetProgramBinary");
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        gl.glProgramBinary(program, binaryFormat, binary, length);
+        called("glProgramBinary");
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        gl.glUseProgram(program);
+        stateChanged("glUseProgram");
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        int location = gl.glGetAttribLocation(program, name);
+        called("glGetAttribLocation");
+        return location;
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        int location = gl.glGetUniformLocation(program, name);
+        called("glGetUniformLocation");
+        return location;
+    }
+
+    @Override
+    public void glUniform1fv(int location, int count, float[] value, int offset) {
+        gl.glUniform1fv(location, count, value, offset);
+        uniformUploaded("glUniform1fv");
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] value, int offset) {
+        gl.glUniform3fv(location, count, value, offset);
+        uniformUploaded("glUniform3fv");
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] value, int offset) {
+        gl.glUniform4fv(location, count, value, offset);
+        uniformUploaded("glUniform4fv");
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        gl.glUniformMatrix4fv(location, count, transpose, value, offset);
+        uniformUploaded("glUniformMatrix4fv");
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        gl.glGenBuffers(n, buffers, offset);
+        called("glGenBuffers");
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        gl.glBindBuffer(target, buffer);
+        stateChanged("glBindBuffer");
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        gl.glBufferData(target, size, data, usage);
+        called("glBufferData");
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        stateChanged("glVertexAttribPointer");
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        gl.glEnableVertexAttribArray(index);
+        stateChanged("glEnableVertexAttribArray");
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        gl.glDisableVertexAttribArray(index);
+        stateChanged("glDisableVertexAttribArray");
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        gl.glVertexAttribDivisor(index, divisor);
+        stateChanged("glVertexAttribDivisor");
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        gl.glEnable(cap);
+        stateChanged("glEnable");
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        gl.glClearColor(red, green, blue, alpha);
+        stateChanged("glClearColor");
+    }
+
+    @Override
+    public void glLineWidth(float width) {
+        gl.glLineWidth(width);
+        stateChanged("glLineWidth");
+    }
+
+    @Override
+    public void glClear(int mask) {
+        gl.glClear(mask);
+        called("glClear");
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        gl.glDrawElements(mode, count, type, offset);
+        drawn("glDrawElements");
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        gl.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+        drawn("glDrawElementsInstanced");
+    }
+}
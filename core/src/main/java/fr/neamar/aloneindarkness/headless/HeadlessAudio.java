@@ -0,0 +1,100 @@
+package fr.neamar.aloneindarkness.headless;
+
+import fr.neamar.aloneindarkness.game.GameAudio;
+
+/**
+ * Audio that plays nothing, but keeps track of time so sounds end like real ones, and counts
+ * what has been played.
+ * <p/>
+ * <p>Zombie sounds are handed out ids and reported as playing, so the horde takes its
+ * steady-state paths.
+ */
+public class HeadlessAudio implements GameAudio {
+    // Length of the sounds gameplay waits for, in ticks
+    public static final int RELOAD_TICKS = 60;
+    public static final int PLAYER_BREATH_TICKS = 120;
+
+    private long tick = 0;
+    private long reloadEndTick = 0;
+    private long playerBreathEndTick = 0;
+
+    private int nextSoundId = 0;
+
+    public long soundObjectsCreated = 0;
+    public long shots = 0;
+    public long zombieDeaths = 0;
+    public long playerDeaths = 0;
+
+    /**
+     * Let time flow by one simulation tick.
+     */
+    public void advance() {
+        tick++;
+    }
+
+    @Override
+    public int createSoundObject(String file) {
+        soundObjectsCreated++;
+        return nextSoundId++ & Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setSoundObjectPosition(int soundId, float x, float y, float z) {
+    }
+
+    @Override
+    public void setSoundVolume(int soundId, float volume) {
+    }
+
+    @Override
+    public void playSound(int soundId, boolean loopingEnabled) {
+    }
+
+    @Override
+    public void stopSound(int soundId) {
+    }
+
+    @Override
+    public boolean isSoundPlaying(int soundId) {
+        return soundId != INVALID_ID;
+    }
+
+    @Override
+    public void playDeathSound(float x, float y, float z) {
+        zombieDeaths++;
+    }
+
+    @Override
+    public void playShot(float x, float y, float z) {
+        shots++;
+    }
+
+    @Override
+    public void playShellCasing(float x, float y, float z, long delayMillis) {
+    }
+
+    @Override
+    public void playReload(float x, float y, float z) {
+        reloadEndTick = tick + RELOAD_TICKS;
+    }
+
+    @Override
+    public boolean isReloadPlaying() {
+        return tick < reloadEndTick;
+    }
+
+    @Override
+    public void playPlayerBreath() {
+        playerBreathEndTick = tick + PLAYER_BREATH_TICKS;
+    }
+
+    @Override
+    public boolean isPlayerBreathPlaying() {
+        return tick < playerBreathEndTick;
+    }
+
+    @Override
+    public void playPlayerDeath(float x, float y, float z) {
+        playerDeaths++;
+    }
+}
@@ -0,0 +1,18 @@
+package fr.neamar.aloneindarkness.headless;
+
+import fr.neamar.aloneindarkness.game.GameRenderer;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * Draws nothing, only counts what would have been drawn.
+ */
+public class HeadlessRenderer implements GameRenderer {
+    public long frames = 0;
+    public long zombiesDrawn = 0;
+
+    @Override
+    public void onFrameReady(FrameState frame) {
+        frames++;
+        zombiesDrawn += frame.zombieCount;
+    }
+}
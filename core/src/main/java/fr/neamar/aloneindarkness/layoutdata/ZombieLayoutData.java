@@ -5,6 +5,12 @@ package fr.neamar.aloneindarkness.layoutdata;
  */
 public class ZombieLayoutData {
 
+    // Front, right, back and left faces, before the top and bottom ones
+    public static final int CUBE_SIDE_VERTICES = 24;
+
+    // Half diagonal of the cube, sqrt(3)
+    public static final float CUBE_BOUNDING_RADIUS = 1.7320508f;
+
     public static final float[] CUBE_COORDS = new float[]{
             // Front face
             -1.0f, 1.0f, 1.0f,
@@ -0,0 +1,207 @@
+package fr.neamar.aloneindarkness.math;
+
+/**
+ * Column-major 4x4 float matrices, as used by OpenGL. Pure Java replacement for
+ * android.opengl.Matrix, so game logic runs on any JVM.
+ * <p/>
+ * <p>Operations follow the algorithms of android.opengl.Matrix operation for operation, so
+ * they return the very same floats. Fast paths only skip multiplications by one, or reuse
+ * results that can't differ: gameplay and rendering are bit for bit unchanged.
+ */
+public final class Mat4 {
+    private Mat4() {
+    }
+
+    public static void setIdentity(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0;
+        }
+        for (int i = 0; i < 16; i += 5) {
+            m[offset + i] = 1.0f;
+        }
+    }
+
+    /**
+     * Same as setIdentity() followed by translate(), without the 12 multiplications by zero.
+     */
+    public static void setTranslation(float[] m, int offset, float x, float y, float z) {
+        setIdentity(m, offset);
+        // translate() adds to the identity's zero, which turns a -0 into 0.
+        m[offset + 12] = x + 0f;
+        m[offset + 13] = y + 0f;
+        m[offset + 14] = z + 0f;
+    }
+
+    public static void translate(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = offset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    public static void setLookAt(float[] m, int offset,
+                                 float eyeX, float eyeY, float eyeZ,
+                                 float centerX, float centerY, float centerZ,
+                                 float upX, float upY, float upZ) {
+        // f = center - eye, normalized
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / length(fx, fy, fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // s = f x up, normalized
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / length(sx, sy, sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[offset] = sx;
+        m[offset + 1] = ux;
+        m[offset + 2] = -fx;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = sy;
+        m[offset + 5] = uy;
+        m[offset + 6] = -fy;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = sz;
+        m[offset + 9] = uz;
+        m[offset + 10] = -fz;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = 0.0f;
+        m[offset + 13] = 0.0f;
+        m[offset + 14] = 0.0f;
+        m[offset + 15] = 1.0f;
+
+        translate(m, offset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    public static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Inverse of a rotation followed by a translation, such as a view matrix. Not in
+     * android.opengl.Matrix: transposes the rotation instead of a general inversion.
+     * result must not overlap m.
+     */
+    public static void invertRigid(float[] result, int resultOffset, float[] m, int offset) {
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                result[resultOffset + 4 * column + row] = m[offset + 4 * row + column];
+            }
+            result[resultOffset + 4 * row + 3] = 0f;
+        }
+        // -R^T t
+        for (int row = 0; row < 3; row++) {
+            int r = offset + 4 * row;
+            result[resultOffset + 12 + row] = -(m[r] * m[offset + 12] + m[r + 1] * m[offset + 13] + m[r + 2] * m[offset + 14]);
+        }
+        result[resultOffset + 15] = 1f;
+    }
+
+    /**
+     * result = lhs x rhs. result must not overlap lhs nor rhs.
+     */
+    public static void multiply(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int i = 0; i < 4; i++) {
+            int c = rhsOffset + 4 * i;
+            multiplyColumn(result, resultOffset + 4 * i, lhs, lhsOffset, rhs[c], rhs[c + 1], rhs[c + 2], rhs[c + 3]);
+        }
+    }
+
+    /**
+     * Fused view x model then projection x modelView.
+     * <p/>
+     * <p>Each column of the model view is projected as soon as it is computed, so there is no
+     * intermediate matrix. Results are those of multiply(mv, view, model) followed by
+     * multiply(mvp, projection, mv). For many translated models under the same view, see
+     * {@link TranslationProjection}.
+     *
+     * @param mv receives the model view, or null when only the projection is needed
+     */
+    public static void modelViewProjection(float[] mvp, int mvpOffset, float[] mv, int mvOffset,
+                                           float[] projection, int projectionOffset,
+                                           float[] view, int viewOffset,
+                                           float[] model, int modelOffset) {
+        for (int i = 0; i < 4; i++) {
+            int c = modelOffset + 4 * i;
+            float x = model[c];
+            float y = model[c + 1];
+            float z = model[c + 2];
+            float w = model[c + 3];
+            int v = viewOffset;
+            float c0 = view[v] * x + view[v + 4] * y + view[v + 8] * z + view[v + 12] * w;
+            float c1 = view[v + 1] * x + view[v + 5] * y + view[v + 9] * z + view[v + 13] * w;
+            float c2 = view[v + 2] * x + view[v + 6] * y + view[v + 10] * z + view[v + 14] * w;
+            float c3 = view[v + 3] * x + view[v + 7] * y + view[v + 11] * z + view[v + 15] * w;
+
+            if (mv != null) {
+                int r = mvOffset + 4 * i;
+                mv[r] = c0;
+                mv[r + 1] = c1;
+                mv[r + 2] = c2;
+                mv[r + 3] = c3;
+            }
+            multiplyColumn(mvp, mvpOffset + 4 * i, projection, projectionOffset, c0, c1, c2, c3);
+        }
+    }
+
+    /**
+     * resultVec = lhs x rhsVec, for a 4 components vector.
+     */
+    public static void transform(float[] resultVec, int resultOffset, float[] lhs, int lhsOffset, float[] rhsVec, int rhsOffset) {
+        float x = rhsVec[rhsOffset];
+        float y = rhsVec[rhsOffset + 1];
+        float z = rhsVec[rhsOffset + 2];
+        float w = rhsVec[rhsOffset + 3];
+        for (int i = 0; i < 4; i++) {
+            int m = lhsOffset + i;
+            resultVec[resultOffset + i] = lhs[m] * x + lhs[m + 4] * y + lhs[m + 8] * z + lhs[m + 12] * w;
+        }
+    }
+
+    /**
+     * Same as {@link #transform(float[], int, float[], int, float[], int)} with w = 1.
+     */
+    public static void transformPoint(float[] resultVec, int resultOffset, float[] lhs, int lhsOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int m = lhsOffset + i;
+            resultVec[resultOffset + i] = lhs[m] * x + lhs[m + 4] * y + lhs[m + 8] * z + lhs[m + 12];
+        }
+    }
+
+    // One column of lhs x rhs, accumulated in the same order as android.opengl.Matrix.multiplyMM.
+    static void multiplyColumn(float[] result, int r, float[] lhs, int l, float x, float y, float z, float w) {
+        float r0 = lhs[l] * x;
+        float r1 = lhs[l + 1] * x;
+        float r2 = lhs[l + 2] * x;
+        float r3 = lhs[l + 3] * x;
+        r0 += lhs[l + 4] * y;
+        r1 += lhs[l + 5] * y;
+        r2 += lhs[l + 6] * y;
+        r3 += lhs[l + 7] * y;
+        r0 += lhs[l + 8] * z;
+        r1 += lhs[l + 9] * z;
+        r2 += lhs[l + 10] * z;
+        r3 += lhs[l + 11] * z;
+        r0 += lhs[l + 12] * w;
+        r1 += lhs[l + 13] * w;
+        r2 += lhs[l + 14] * w;
+        r3 += lhs[l + 15] * w;
+        result[r] = r0;
+        result[r + 1] = r1;
+        result[r + 2] = r2;
+        result[r + 3] = r3;
+    }
+}
@@ -0,0 +1,53 @@
+package fr.neamar.aloneindarkness.math;
+
+/**
+ * Model view projection of many translated models under the same view and projection, e.g. the
+ * whole horde for one eye.
+ * <p/>
+ * <p>The first three columns of a translation built by
+ * {@link Mat4#setTranslation(float[], int, float, float, float)} are always the same, and column
+ * i of a product only depends on column i of its right operand. Those columns of the model view
+ * and model view projection are thus computed once in {@link #set(float[], int, float[], int)},
+ * and each model only costs its last column: 28 multiplications instead of 128, for the very
+ * same floats as {@link Mat4#modelViewProjection}.
+ */
+public class TranslationProjection {
+    private static final float[] IDENTITY = new float[16];
+
+    static {
+        Mat4.setIdentity(IDENTITY, 0);
+    }
+
+    private final float[] view = new float[16];
+    private final float[] projection = new float[16];
+
+    // Columns 0 to 2 are shared by every model, column 3 is scratch
+    private final float[] modelView = new float[16];
+    private final float[] modelViewProjection = new float[16];
+
+    public void set(float[] projection, int projectionOffset, float[] view, int viewOffset) {
+        System.arraycopy(projection, projectionOffset, this.projection, 0, 16);
+        System.arraycopy(view, viewOffset, this.view, 0, 16);
+
+        for (int i = 0; i < 3; i++) {
+            int c = 4 * i;
+            Mat4.multiplyColumn(modelView, c, this.view, 0, IDENTITY[c], IDENTITY[c + 1], IDENTITY[c + 2], IDENTITY[c + 3]);
+            Mat4.multiplyColumn(modelViewProjection, c, this.projection, 0, modelView[c], modelView[c + 1], modelView[c + 2], modelView[c + 3]);
+        }
+    }
+
+    /**
+     * @param mv     receives the model view, or null when only the projection is needed
+     * @param models translation as built by {@link Mat4#setTranslation(float[], int, float, float, float)}
+     */
+    public void project(float[] mvp, int mvpOffset, float[] mv, int mvOffset, float[] models, int modelOffset) {
+        // Last column of the model view, with w = 1
+        Mat4.transformPoint(modelView, 12, view, 0, models[modelOffset + 12], models[modelOffset + 13], models[modelOffset + 14]);
+        Mat4.multiplyColumn(modelViewProjection, 12, projection, 0, modelView[12], modelView[13], modelView[14], modelView[15]);
+
+        System.arraycopy(modelViewProjection, 0, mvp, mvpOffset, 16);
+        if (mv != null) {
+            System.arraycopy(modelView, 0, mv, mvOffset, 16);
+        }
+    }
+}
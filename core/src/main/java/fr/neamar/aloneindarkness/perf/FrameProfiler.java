@@ -0,0 +1,170 @@
+package fr.neamar.aloneindarkness.perf;
+
+import java.util.Locale;
+
+/**
+ * Times every stage of a frame into its own {@link LatencyHistogram}.
+ * <p/>
+ * <p>Stages may nest: {@link #STAGE_DRAW_EYE} includes {@link #STAGE_RECORD} for the first eye,
+ * and {@link #STAGE_DRAW_FLOOR} for each eye, as the recorded floor commands are issued.
+ * {@link #STAGE_FRAME} spans everything from onNewFrame to onFinishFrame.
+ * Stages are timed on the GL thread, except {@link #STAGE_SIMULATION}: the simulation thread
+ * records its ticks with {@link #recordSimulationTick(long)} into a separate histogram, handed
+ * over to the GL thread at the end of each frame.
+ * <p/>
+ * <p>{@link #endFrame()} tells when a report is due: a dump was requested, or the frame went over
+ * budget. Reports are rate limited, so a stuttering session does not flood the log.
+ */
+public class FrameProfiler {
+    public static final int STAGE_FRAME = 0;
+    public static final int STAGE_NEW_FRAME = 1;
+    public static final int STAGE_AUDIO_UPDATE = 2;
+    public static final int STAGE_SIMULATION = 3;
+    public static final int STAGE_DRAW_EYE = 4;
+    public static final int STAGE_DRAW_FLOOR = 5;
+    public static final int STAGE_RECORD = 6;
+    public static final int STAGE_COUNT = 7;
+
+    public static final String[] STAGE_NAMES = {"frame", "onNewFrame", "audio update", "simulation", "onDrawEye", "drawFloor", "record"};
+
+    // Minimal delay between two over budget reports
+    public static final long MIN_SLOW_FRAME_REPORT_INTERVAL_NANOS = 5000000000L;
+
+    public final long budgetNanos;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+    private final long[] startNanos = new long[STAGE_COUNT];
+    // Time spent in each stage during the current frame, for the simulation the ticks handed over
+    private final long[] frameNanos = new long[STAGE_COUNT];
+    private final long[] lastFrameNanos = new long[STAGE_COUNT];
+
+    // Ticks since the last hand over, guarded by their own monitor
+    private final LatencyHistogram simulationTicks = new LatencyHistogram();
+    private long simulationTicksNanos = 0;
+
+    private long slowFrames = 0;
+    private long lastSlowFrameReportNanos = Long.MIN_VALUE / 2;
+    private volatile boolean dumpRequested = false;
+    private volatile boolean resetRequested = false;
+
+    private final StringBuilder report = new StringBuilder();
+
+    public FrameProfiler(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void begin(int stage) {
+        startNanos[stage] = System.nanoTime();
+    }
+
+    public void end(int stage) {
+        long duration = System.nanoTime() - startNanos[stage];
+        histograms[stage].record(duration);
+        frameNanos[stage] += duration;
+    }
+
+    /**
+     * Record a simulation tick. Called from the simulation thread.
+     */
+    public void recordSimulationTick(long nanos) {
+        synchronized (simulationTicks) {
+            simulationTicks.record(nanos);
+            simulationTicksNanos += nanos;
+        }
+    }
+
+    public void beginFrame() {
+        if (resetRequested) {
+            resetRequested = false;
+            reset();
+        }
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            frameNanos[i] = 0;
+        }
+        begin(STAGE_FRAME);
+    }
+
+    /**
+     * @return true if {@link #dump(String)} should be called now.
+     */
+    public boolean endFrame() {
+        end(STAGE_FRAME);
+        synchronized (simulationTicks) {
+            histograms[STAGE_SIMULATION].add(simulationTicks);
+            frameNanos[STAGE_SIMULATION] += simulationTicksNanos;
+            simulationTicks.reset();
+            simulationTicksNanos = 0;
+        }
+        System.arraycopy(frameNanos, 0, lastFrameNanos, 0, STAGE_COUNT);
+
+        if (dumpRequested) {
+            dumpRequested = false;
+            return true;
+        }
+
+        if (frameNanos[STAGE_FRAME] > budgetNanos) {
+            slowFrames++;
+            long now = System.nanoTime();
+            if (now - lastSlowFrameReportNanos > MIN_SLOW_FRAME_REPORT_INTERVAL_NANOS) {
+                lastSlowFrameReportNanos = now;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ask for a report at the end of the current frame. Can be called from any thread.
+     */
+    public void requestDump() {
+        dumpRequested = true;
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    /**
+     * Forget everything recorded so far, when the next frame begins. Can be called from any thread.
+     */
+    public void requestReset() {
+        resetRequested = true;
+    }
+
+    private void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        synchronized (simulationTicks) {
+            simulationTicks.reset();
+            simulationTicksNanos = 0;
+        }
+        slowFrames = 0;
+    }
+
+    /**
+     * Write a report of every stage, times are in milliseconds.
+     * The returned builder is reused by the next call.
+     *
+     * @param reason why the report was made, printed on its first line
+     */
+    public StringBuilder dump(String reason) {
+        report.setLength(0);
+        report.append(String.format(Locale.US, "Frame times (%s), budget %.2f, %d slow frames\n",
+                reason, budgetNanos / 1e6, slowFrames));
+        report.append(String.format(Locale.US, "%-14s %8s %8s %8s %8s %8s %8s\n",
+                "stage", "count", "mean", "p50", "p99", "max", "last"));
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram histogram = histograms[i];
+            report.append(String.format(Locale.US, "%-14s %8d %8.2f %8.2f %8.2f %8.2f %8.2f\n",
+                    STAGE_NAMES[i], histogram.getCount(),
+                    histogram.getMean() / 1e3, histogram.getPercentile(0.5f) / 1e3,
+                    histogram.getPercentile(0.99f) / 1e3, histogram.getMax() / 1e3,
+                    lastFrameNanos[i] / 1e6));
+        }
+        return report;
+    }
+}
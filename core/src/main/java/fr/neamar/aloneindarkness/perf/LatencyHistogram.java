@@ -0,0 +1,116 @@
+package fr.neamar.aloneindarkness.perf;
+
+/**
+ * Latency histogram with fixed, log-spaced buckets. Recording never allocates.
+ * <p/>
+ * <p>Durations are kept in microseconds. Every power of two is split into {@link #SUB_BUCKETS}
+ * buckets, so percentiles are at most 25% above the real value, from 1us up to 1s. Longer
+ * durations all land in the last bucket, {@link #getMax()} stays exact.
+ * <p/>
+ * <p>A histogram has a single writer. Reading from another thread gives approximate counts.
+ */
+public class LatencyHistogram {
+    public static final int SUB_BITS = 2;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // Up to 2^20us, about a second
+    public static final int BUCKET_COUNT = 20 * SUB_BUCKETS;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private long count = 0;
+    private long totalMicros = 0;
+    private long maxMicros = 0;
+
+    public void record(long nanos) {
+        long micros = nanos / 1000;
+        counts[bucketFor(micros)]++;
+        count++;
+        totalMicros += micros;
+        if (micros > maxMicros) {
+            maxMicros = micros;
+        }
+    }
+
+    /**
+     * Add the durations recorded by another histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        totalMicros += other.totalMicros;
+        if (other.maxMicros > maxMicros) {
+            maxMicros = other.maxMicros;
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        totalMicros = 0;
+        maxMicros = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return longest recorded duration, in microseconds.
+     */
+    public long getMax() {
+        return maxMicros;
+    }
+
+    /**
+     * @return average duration, in microseconds.
+     */
+    public long getMean() {
+        return count == 0 ? 0 : totalMicros / count;
+    }
+
+    /**
+     * @param fraction from 0 to 1, e.g. 0.99 for the 99th percentile
+     * @return upper bound of the bucket holding the percentile, in microseconds.
+     */
+    public long getPercentile(float fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank && seen > 0) {
+                return Math.min(bucketLowerBound(bucket + 1) - 1, maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    static int bucketFor(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (highestBit - SUB_BITS)) & (SUB_BUCKETS - 1);
+        int bucket = (highestBit - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    static long bucketLowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket >= BUCKET_COUNT) {
+            return Long.MAX_VALUE;
+        }
+
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (bucket / SUB_BUCKETS - 1);
+    }
+}
@@ -0,0 +1,104 @@
+package fr.neamar.aloneindarkness.render;
+
+import fr.neamar.aloneindarkness.gl.Gl;
+
+/**
+ * The grid drawn on the floor, as in grid_fragment.shader: lines {@link #SPACING} apart,
+ * {@link #LINE_WIDTH} wide, white up close and fading into the floor color with depth.
+ * <p/>
+ * <p>The shader tests every fragment of the floor for a line. {@link #lines(float[])} builds the
+ * same grid as line geometry instead, so only the few fragments on a line pay for it. The fade is
+ * computed per vertex, lines are cut in {@link #SEGMENT_LENGTH} segments so it stays close to
+ * the per fragment one.
+ * <p/>
+ * <p>A line is {@link #LINE_WIDTH_PIXELS} wide however thin the band of the shader is on screen.
+ * grid_line_vertex.shader computes how much of the line the band would cover, and blends the
+ * line into the floor by as much: distant lines are as bright as the shader's, on average.
+ */
+public class FloorGrid {
+    public static final float SPACING = 10f;
+    public static final float LINE_WIDTH = 0.1f;
+    // Half the size of the floor, centered on the player
+    public static final float EXTENT = 200f;
+    public static final float SEGMENT_LENGTH = 10f;
+    // Lines lie above the floor, so the floor drawn after them never covers them
+    public static final float LIFT = 0.05f;
+    // Depth at which a line has completely faded
+    public static final float FADE_DEPTH = 90f;
+    // glLineWidth() of the line mesh: the band of the shader is 2.5 pixels wide right below the
+    // player, and up to 3.6 pixels along the axis lines are widened on for a diagonal line, on a
+    // 1024 pixels wide eye buffer. Thinner lines can't be as bright.
+    public static final float LINE_WIDTH_PIXELS = 3f;
+
+    /**
+     * @return whether the shader draws a line at this floor coordinate.
+     */
+    public static boolean isOnLine(float coordinate) {
+        // mod(abs(x), 10.0) < 0.1
+        float a = Math.abs(coordinate);
+        return a - SPACING * (float) Math.floor(a / SPACING) < LINE_WIDTH;
+    }
+
+    /**
+     * @return the shader color of a line at this depth, over a floor of this color.
+     */
+    public static float fade(float depth, float floorColor) {
+        return Math.max(0f, (FADE_DEPTH - depth) / FADE_DEPTH) + Math.min(1f, depth / FADE_DEPTH) * floorColor;
+    }
+
+    /**
+     * @return coordinates of the lines across an axis, in the middle of the bands the shader
+     * lights up: on the far side of each multiple of {@link #SPACING}. The band around 0 is
+     * twice as wide, it is drawn as two lines.
+     */
+    public static float[] lineCoordinates() {
+        int half = (int) (EXTENT / SPACING);
+        float[] coordinates = new float[2 * half + 2];
+        for (int n = 1; n <= half; n++) {
+            coordinates[half - n] = -n * SPACING - LINE_WIDTH / 2;
+            coordinates[half + 1 + n] = n * SPACING + LINE_WIDTH / 2;
+        }
+        coordinates[half] = -LINE_WIDTH / 2;
+        coordinates[half + 1] = LINE_WIDTH / 2;
+        return coordinates;
+    }
+
+    /**
+     * Build the grid as a line mesh, in floor coordinates.
+     *
+     * @param color floor color, the line color once faded
+     */
+    public static Mesh lines(float[] color) {
+        float[] coordinates = lineCoordinates();
+        int lineCount = coordinates.length;
+        int pointsPerLine = (int) (2 * EXTENT / SEGMENT_LENGTH) + 1;
+
+        float[] vertices = new float[2 * lineCount * pointsPerLine * Mesh.VERTEX_SIZE];
+        short[] indices = new short[2 * lineCount * (pointsPerLine - 1) * 2];
+        int vertex = 0;
+        int index = 0;
+        for (int axis = 0; axis < 2; axis++) {
+            for (int line = 0; line < lineCount; line++) {
+                float across = coordinates[line];
+                for (int point = 0; point < pointsPerLine; point++) {
+                    float along = -EXTENT + point * SEGMENT_LENGTH;
+                    int v = vertex * Mesh.VERTEX_SIZE;
+                    vertices[v] = axis == 0 ? across : along;
+                    vertices[v + 1] = LIFT;
+                    vertices[v + 2] = axis == 0 ? along : across;
+                    // The floor is lit as facing up, the normal is across the line instead
+                    vertices[v + Mesh.POSITION_SIZE + (axis == 0 ? 0 : 2)] = 1;
+                    System.arraycopy(color, 0, vertices, v + Mesh.POSITION_SIZE + Mesh.NORMAL_SIZE, Mesh.COLOR_SIZE);
+
+                    if (point > 0) {
+                        indices[index++] = (short) (vertex - 1);
+                        indices[index++] = (short) vertex;
+                    }
+                    vertex++;
+                }
+            }
+        }
+
+        return new Mesh(vertices, indices, Gl.GL_LINES);
+    }
+}
@@ -0,0 +1,203 @@
+package fr.neamar.aloneindarkness.render;
+
+import java.util.Arrays;
+
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.gl.CommandBuffer;
+import fr.neamar.aloneindarkness.gl.Gl;
+import fr.neamar.aloneindarkness.gl.GlChecker;
+import fr.neamar.aloneindarkness.gl.ProgramCache;
+import fr.neamar.aloneindarkness.layoutdata.WorldLayoutData;
+import fr.neamar.aloneindarkness.math.Mat4;
+
+/**
+ * Draws the floor, and its grid: either as {@link FloorGrid} lines over a plain floor, or
+ * computed for every fragment of the floor by grid_fragment.shader.
+ * <p/>
+ * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
+ * position of the light, so if we rewrite our code to draw the floor first, the lighting might
+ * look strange.
+ * <p/>
+ * <p>Grid lines are drawn before the floor: lying just above it, they keep the floor from
+ * covering them even where the depth buffer can't tell them apart. They are
+ * {@link FloorGrid#LINE_WIDTH_PIXELS} wide: OpenGL ES only guarantees 1 pixel wide lines, on a
+ * driver without wide enough lines the grid is drawn by the shader instead.
+ */
+public class FloorRenderer implements RenderQueue.Renderable {
+    // Drawn after the zombies, which are always closer
+    public static final int PROGRAM_RANK = 1;
+
+    private final GlChecker glChecker;
+    private final CommandBuffer.Marker drawingGrid;
+    private final CommandBuffer.Marker drawingFloor;
+
+    private final boolean linesRequested;
+    // Whether the grid is drawn as lines in the current context
+    private boolean lines;
+    private final Mesh floor;
+    private final Mesh grid;
+
+    // Floor appears below user.
+    public final float[] model = new float[16];
+
+    private int floorProgram;
+
+    private int floorPositionParam;
+    private int floorNormalParam;
+    private int floorColorParam;
+    private int floorModelParam;
+    private int floorModelViewParam;
+    private int floorModelViewProjectionParam;
+    private int floorLightPosParam;
+
+    private int gridProgram;
+
+    private int gridPositionParam;
+    private int gridNormalParam;
+    private int gridColorParam;
+    private int gridModelViewParam;
+    private int gridModelViewProjectionParam;
+    private int gridLightPosParam;
+    private int gridLineScaleParam;
+
+    private final int[] lineWidthRange = new int[2];
+    private final float[] lineScale = new float[1];
+
+    // Eye being drawn, read by render()
+    private float[] modelView;
+    private float[] modelViewProjection;
+    private float[] lightPosInEyeSpace;
+
+    /**
+     * @param lines draw the grid as lines rather than with grid_fragment.shader, when the
+     *              driver supports wide enough lines
+     */
+    public FloorRenderer(boolean lines, GlChecker glChecker) {
+        linesRequested = lines;
+        this.glChecker = glChecker;
+        drawingGrid = glChecker.checkpoint("drawing grid");
+        drawingFloor = glChecker.checkpoint("drawing floor");
+
+        floor = Mesh.fromTriangles(WorldLayoutData.FLOOR_COORDS, WorldLayoutData.FLOOR_NORMALS, WorldLayoutData.FLOOR_COLORS);
+        grid = lines ? FloorGrid.lines(Arrays.copyOf(WorldLayoutData.FLOOR_COLORS, Mesh.COLOR_SIZE)) : null;
+        Mat4.setTranslation(model, 0, 0, -Game.FLOOR_DEPTH, 0);
+    }
+
+    /**
+     * Upload the meshes and build the programs, in a new GL context.
+     */
+    public void onSurfaceCreated(Gl gl, ProgramCache programs, String lightVertex, String gridFragment, String gridLineVertex, String passthroughFragment) {
+        lines = false;
+        if (linesRequested) {
+            gl.glGetIntegerv(Gl.GL_ALIASED_LINE_WIDTH_RANGE, lineWidthRange, 0);
+            lines = lineWidthRange[1] >= FloorGrid.LINE_WIDTH_PIXELS;
+        }
+
+        floor.upload(gl);
+        if (lines) {
+            grid.upload(gl);
+        }
+
+        // With the grid drawn as lines, the floor itself is plain
+        floorProgram = programs.getProgram(lightVertex, lines ? passthroughFragment : gridFragment);
+        gl.glUseProgram(floorProgram);
+
+        glChecker.checkAlways("Floor program");
+
+        floorModelParam = gl.glGetUniformLocation(floorProgram, "u_Model");
+        floorModelViewParam = gl.glGetUniformLocation(floorProgram, "u_MVMatrix");
+        floorModelViewProjectionParam = gl.glGetUniformLocation(floorProgram, "u_MVP");
+        floorLightPosParam = gl.glGetUniformLocation(floorProgram, "u_LightPos");
+
+        floorPositionParam = gl.glGetAttribLocation(floorProgram, "a_Position");
+        floorNormalParam = gl.glGetAttribLocation(floorProgram, "a_Normal");
+        floorColorParam = gl.glGetAttribLocation(floorProgram, "a_Color");
+
+        glChecker.checkAlways("Floor program params");
+
+        if (lines) {
+            gridProgram = programs.getProgram(gridLineVertex, passthroughFragment);
+
+            gridModelViewParam = gl.glGetUniformLocation(gridProgram, "u_MVMatrix");
+            gridModelViewProjectionParam = gl.glGetUniformLocation(gridProgram, "u_MVP");
+            gridLightPosParam = gl.glGetUniformLocation(gridProgram, "u_LightPos");
+            gridLineScaleParam = gl.glGetUniformLocation(gridProgram, "u_LineScale");
+
+            gridPositionParam = gl.glGetAttribLocation(gridProgram, "a_Position");
+            gridNormalParam = gl.glGetAttribLocation(gridProgram, "a_Normal");
+            gridColorParam = gl.glGetAttribLocation(gridProgram, "a_Color");
+
+            glChecker.checkAlways("Grid program params");
+        }
+    }
+
+    /**
+     * @return whether the grid is drawn as lines, once the surface is created.
+     */
+    public boolean isDrawingLines() {
+        return lines;
+    }
+
+    /**
+     * @return u_LineScale of grid_line_vertex.shader: pixels per unit at a depth of 1, over the
+     * width of the lines in pixels.
+     */
+    public static float lineScale(float[] perspective, int viewportWidth) {
+        return perspective[0] * viewportWidth / 2 / FloorGrid.LINE_WIDTH_PIXELS;
+    }
+
+    /**
+     * Set the projection of the eye and the width of its viewport, in pixels, read when the grid
+     * lines are rendered. Both eyes share them.
+     */
+    public void setViewport(float[] perspective, int viewportWidth) {
+        lineScale[0] = lineScale(perspective, viewportWidth);
+    }
+
+    /**
+     * Set the matrices of the eye, read when the floor is rendered.
+     *
+     * @param modelView           view x {@link #model}
+     * @param modelViewProjection projection x modelView
+     */
+    public void setEye(float[] modelView, float[] modelViewProjection, float[] lightPosInEyeSpace) {
+        this.modelView = modelView;
+        this.modelViewProjection = modelViewProjection;
+        this.lightPosInEyeSpace = lightPosInEyeSpace;
+    }
+
+    @Override
+    public void render(Gl gl, int param) {
+        if (lines) {
+            drawGrid(gl);
+        }
+
+        gl.glUseProgram(floorProgram);
+
+        // Set ModelView, MVP, position, normals, and color.
+        gl.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
+        gl.glUniformMatrix4fv(floorModelParam, 1, false, model, 0);
+        gl.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
+        gl.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
+
+        floor.bind(gl, floorPositionParam, floorNormalParam, floorColorParam);
+        floor.draw(gl);
+
+        CommandBuffer.mark(gl, drawingFloor);
+    }
+
+    private void drawGrid(Gl gl) {
+        gl.glUseProgram(gridProgram);
+        gl.glLineWidth(FloorGrid.LINE_WIDTH_PIXELS);
+
+        gl.glUniform3fv(gridLightPosParam, 1, lightPosInEyeSpace, 0);
+        gl.glUniform1fv(gridLineScaleParam, 1, lineScale, 0);
+        gl.glUniformMatrix4fv(gridModelViewParam, 1, false, modelView, 0);
+        gl.glUniformMatrix4fv(gridModelViewProjectionParam, 1, false, modelViewProjection, 0);
+
+        grid.bind(gl, gridPositionParam, gridNormalParam, gridColorParam);
+        grid.draw(gl);
+
+        CommandBuffer.mark(gl, drawingGrid);
+    }
+}
@@ -0,0 +1,54 @@
+package fr.neamar.aloneindarkness.render;
+
+import fr.neamar.aloneindarkness.math.Mat4;
+
+/**
+ * The volume an eye can see, as six planes, to skip what is outside of it.
+ * <p/>
+ * <p>Planes are extracted from the view-projection matrix (Gribb and Hartmann): they are in world
+ * space, normalized, and face inward.
+ */
+public class Frustum {
+    private static final int PLANE_COUNT = 6;
+
+    // a, b, c, d of the left, right, bottom, top, near and far planes. A point is inside when
+    // ax + by + cz + d >= 0 for all of them.
+    private final float[] planes = new float[PLANE_COUNT * 4];
+    private final float[] viewProjection = new float[16];
+
+    /**
+     * @param perspective projection matrix of the eye
+     * @param view        view matrix of the eye
+     */
+    public void set(float[] perspective, float[] view) {
+        Mat4.multiply(viewProjection, 0, perspective, 0, view, 0);
+        float[] m = viewProjection;
+
+        // Column-major: row i of the matrix is m[i], m[4 + i], m[8 + i], m[12 + i].
+        for (int row = 0; row < 3; row++) {
+            setPlane(row * 2, m[3] + m[row], m[7] + m[4 + row], m[11] + m[8 + row], m[15] + m[12 + row]);
+            setPlane(row * 2 + 1, m[3] - m[row], m[7] - m[4 + row], m[11] - m[8 + row], m[15] - m[12 + row]);
+        }
+    }
+
+    private void setPlane(int plane, float a, float b, float c, float d) {
+        float length = Mat4.length(a, b, c);
+        int p = plane * 4;
+        planes[p] = a / length;
+        planes[p + 1] = b / length;
+        planes[p + 2] = c / length;
+        planes[p + 3] = d / length;
+    }
+
+    /**
+     * @return false if the sphere is entirely outside of the frustum.
+     */
+    public boolean intersectsSphere(float x, float y, float z, float radius) {
+        for (int p = 0; p < PLANE_COUNT * 4; p += 4) {
+            if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
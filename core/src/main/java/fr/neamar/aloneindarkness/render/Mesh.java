@@ -0,0 +1,167 @@
+package fr.neamar.aloneindarkness.render;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import fr.neamar.aloneindarkness.gl.Gl;
+
+/**
+ * Indexed geometry living in GPU buffer objects.
+ * <p/>
+ * <p>Vertices are interleaved as position (3 floats), normal (3 floats) and color (4 floats), and
+ * uploaded once in {@link #upload(Gl)}. Draws only bind the buffers, instead of sending client-side
+ * arrays to the driver for every eye of every frame.
+ */
+public class Mesh {
+    public static final int POSITION_SIZE = 3;
+    public static final int NORMAL_SIZE = 3;
+    public static final int COLOR_SIZE = 4;
+
+    public static final int VERTEX_SIZE = POSITION_SIZE + NORMAL_SIZE + COLOR_SIZE;
+    public static final int STRIDE = VERTEX_SIZE * 4;
+
+    public static final int POSITION_OFFSET = 0;
+    public static final int NORMAL_OFFSET = POSITION_SIZE * 4;
+    public static final int COLOR_OFFSET = (POSITION_SIZE + NORMAL_SIZE) * 4;
+
+    public final float[] vertices;
+    public final short[] indices;
+
+    public final int vertexCount;
+    public final int indexCount;
+    // Primitive drawn by the indices, GL_TRIANGLES or GL_LINES
+    public final int mode;
+
+    private final int[] buffers = new int[2];
+
+    public Mesh(float[] vertices, short[] indices) {
+        this(vertices, indices, Gl.GL_TRIANGLES);
+    }
+
+    public Mesh(float[] vertices, short[] indices, int mode) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.mode = mode;
+
+        vertexCount = vertices.length / VERTEX_SIZE;
+        indexCount = indices.length;
+    }
+
+    /**
+     * Build an indexed mesh from the non indexed triangle lists of the layout data.
+     * Identical vertices are merged, e.g. the 36 vertices of a cube become 24.
+     */
+    public static Mesh fromTriangles(float[] coords, float[] normals, float[] colors) {
+        int triangleVertices = coords.length / POSITION_SIZE;
+
+        float[] vertices = new float[triangleVertices * VERTEX_SIZE];
+        short[] indices = new short[triangleVertices];
+        int vertexCount = 0;
+
+        float[] vertex = new float[VERTEX_SIZE];
+        for (int i = 0; i < triangleVertices; i++) {
+            System.arraycopy(coords, i * POSITION_SIZE, vertex, 0, POSITION_SIZE);
+            System.arraycopy(normals, i * NORMAL_SIZE, vertex, POSITION_SIZE, NORMAL_SIZE);
+            System.arraycopy(colors, i * COLOR_SIZE, vertex, POSITION_SIZE + NORMAL_SIZE, COLOR_SIZE);
+
+            int index = indexOf(vertices, vertexCount, vertex);
+            if (index == -1) {
+                index = vertexCount++;
+                System.arraycopy(vertex, 0, vertices, index * VERTEX_SIZE, VERTEX_SIZE);
+            }
+            indices[i] = (short) index;
+        }
+
+        return new Mesh(Arrays.copyOf(vertices, vertexCount * VERTEX_SIZE), indices);
+    }
+
+    private static int indexOf(float[] vertices, int vertexCount, float[] vertex) {
+        for (int i = 0; i < vertexCount; i++) {
+            boolean equal = true;
+            for (int j = 0; j < VERTEX_SIZE && equal; j++) {
+                equal = vertices[i * VERTEX_SIZE + j] == vertex[j];
+            }
+            if (equal) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Concatenate several copies of this mesh, used for pseudo-instancing.
+     * Copy n uses the vertices [n * vertexCount, (n + 1) * vertexCount).
+     */
+    public Mesh repeat(int copies) {
+        float[] repeatedVertices = new float[vertices.length * copies];
+        short[] repeatedIndices = new short[indices.length * copies];
+        for (int copy = 0; copy < copies; copy++) {
+            System.arraycopy(vertices, 0, repeatedVertices, copy * vertices.length, vertices.length);
+            for (int i = 0; i < indices.length; i++) {
+                repeatedIndices[copy * indices.length + i] = (short) (indices[i] + copy * vertexCount);
+            }
+        }
+
+        return new Mesh(repeatedVertices, repeatedIndices, mode);
+    }
+
+    /**
+     * Create the buffer objects. Needs to be called again whenever the GL context is lost.
+     */
+    public void upload(Gl gl) {
+        FloatBuffer vertexData = ByteBuffer.allocateDirect(vertices.length * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        vertexData.put(vertices).position(0);
+
+        ShortBuffer indexData = ByteBuffer.allocateDirect(indices.length * 2)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        indexData.put(indices).position(0);
+
+        gl.glGenBuffers(2, buffers, 0);
+
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, buffers[0]);
+        gl.glBufferData(Gl.GL_ARRAY_BUFFER, vertices.length * 4, vertexData, Gl.GL_STATIC_DRAW);
+
+        gl.glBindBuffer(Gl.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        gl.glBufferData(Gl.GL_ELEMENT_ARRAY_BUFFER, indices.length * 2, indexData, Gl.GL_STATIC_DRAW);
+
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(Gl.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Bind the buffers and point the program attributes at them.
+     */
+    public void bind(Gl gl, int positionParam, int normalParam, int colorParam) {
+        gl.glBindBuffer(Gl.GL_ARRAY_BUFFER, buffers[0]);
+        gl.glBindBuffer(Gl.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+
+        gl.glVertexAttribPointer(positionParam, POSITION_SIZE, Gl.GL_FLOAT, false, STRIDE, POSITION_OFFSET);
+        gl.glVertexAttribPointer(normalParam, NORMAL_SIZE, Gl.GL_FLOAT, false, STRIDE, NORMAL_OFFSET);
+        gl.glVertexAttribPointer(colorParam, COLOR_SIZE, Gl.GL_FLOAT, false, STRIDE, COLOR_OFFSET);
+
+        gl.glEnableVertexAttribArray(positionParam);
+        gl.glEnableVertexAttribArray(normalParam);
+        gl.glEnableVertexAttribArray(colorParam);
+    }
+
+    public void draw(Gl gl) {
+        draw(gl, indexCount);
+    }
+
+    /**
+     * Draw the first indices of the mesh, e.g. the first copies of a repeated mesh.
+     */
+    public void draw(Gl gl, int count) {
+        gl.glDrawElements(mode, count, Gl.GL_UNSIGNED_SHORT, 0);
+    }
+
+    public void drawInstanced(Gl gl, int instanceCount) {
+        gl.glDrawElementsInstanced(mode, indexCount, Gl.GL_UNSIGNED_SHORT, 0, instanceCount);
+    }
+}
@@ -0,0 +1,99 @@
+package fr.neamar.aloneindarkness.render;
+
+import java.util.Arrays;
+
+import fr.neamar.aloneindarkness.gl.Gl;
+
+/**
+ * Collects the draws of an eye, and issues them sorted by program, then mesh, then depth.
+ * <p/>
+ * <p>Draws sharing a program and a mesh end up next to each other, so a {@link
+ * fr.neamar.aloneindarkness.gl.GlStateCache} can drop most of their state changes. Within a group,
+ * opaque geometry is drawn front to back, letting early depth testing reject hidden fragments.
+ * <p/>
+ * <p>Programs and meshes are sorted by rank, chosen by the caller: give the lowest program rank
+ * to the geometry closest to the player.
+ * <p/>
+ * <p>Draws are sorted as packed long keys: program rank (6 bits), mesh rank (6 bits), depth
+ * (31 bits) and submission index (20 bits).
+ */
+public class RenderQueue {
+    /**
+     * Something able to draw itself, once its draw came up in the queue.
+     */
+    public interface Renderable {
+        /**
+         * @param param the value given to {@link #submit(Renderable, int, int, float, int)}
+         */
+        void render(Gl gl, int param);
+    }
+
+    public static final int MAX_PROGRAM_RANK = (1 << 6) - 1;
+    public static final int MAX_MESH_RANK = (1 << 6) - 1;
+    public static final int MAX_DRAWS = 1 << 20;
+
+    private final Renderable[] renderables;
+    private final int[] params;
+    private final long[] keys;
+    private int size = 0;
+
+    public RenderQueue(int capacity) {
+        if (capacity > MAX_DRAWS) {
+            throw new IllegalArgumentException("Render queue capacity is at most " + MAX_DRAWS);
+        }
+
+        renderables = new Renderable[capacity];
+        params = new int[capacity];
+        keys = new long[capacity];
+    }
+
+    /**
+     * Queue a draw.
+     *
+     * @param programRank sort rank of the program, from 0 to {@link #MAX_PROGRAM_RANK}
+     * @param meshRank    sort rank of the mesh, from 0 to {@link #MAX_MESH_RANK}
+     * @param depth       distance from the eye to the closest point of the draw
+     * @param param       handed back to the renderable, e.g. the first zombie of a batch
+     */
+    public void submit(Renderable renderable, int programRank, int meshRank, float depth, int param) {
+        if (size == renderables.length) {
+            throw new IllegalStateException("Render queue is full");
+        }
+
+        renderables[size] = renderable;
+        params[size] = param;
+        keys[size] = (long) programRank << 57 | (long) meshRank << 51 | (long) depthBits(depth) << 20 | size;
+        size++;
+    }
+
+    // Positive floats sort like their bits, which fit in 31 bits.
+    private static int depthBits(float depth) {
+        if (!(depth > 0)) {
+            return 0;
+        }
+        return Float.floatToRawIntBits(depth);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Issue every queued draw in order, and empty the queue.
+     */
+    public void flush(Gl gl) {
+        Arrays.sort(keys, 0, size);
+        for (int i = 0; i < size; i++) {
+            int draw = (int) (keys[i] & (MAX_DRAWS - 1));
+            renderables[draw].render(gl, params[draw]);
+        }
+        clear();
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            renderables[i] = null;
+        }
+        size = 0;
+    }
+}
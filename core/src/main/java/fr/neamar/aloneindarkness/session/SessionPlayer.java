@@ -0,0 +1,106 @@
+package fr.neamar.aloneindarkness.session;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * Reads back, event by event, a session written by {@link SessionRecorder}.
+ * <p/>
+ * <p>The fields of the current event are overwritten by every {@link #next()}, reading
+ * allocates nothing. A session cut short, e.g. when the app was killed while recording, ends
+ * with its last complete event.
+ */
+public class SessionPlayer {
+    public static final int END = 0;
+
+    private final DataInputStream in;
+
+    public final long seed;
+    public final int maxZombies;
+    public final int ticksPerSecond;
+
+    // Current event
+    public int type = END;
+    // Since the start of the recording
+    public long nanos = 0;
+    public long tick = 0;
+    public float interpolation;
+    public boolean reloadPlaying;
+    public final float[] headView = new float[16];
+    public final float[] headRotation = new float[4];
+
+    public SessionPlayer(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, SessionRecorder.BUFFER_SIZE));
+        if (this.in.readInt() != SessionRecorder.MAGIC) {
+            throw new IOException("Not a session recording");
+        }
+        if (this.in.readInt() != SessionRecorder.VERSION) {
+            throw new IOException("Unsupported session recording version");
+        }
+        seed = this.in.readLong();
+        maxZombies = this.in.readInt();
+        ticksPerSecond = this.in.readInt();
+
+        headView[15] = 1f;
+    }
+
+    /**
+     * Read the next event.
+     *
+     * @return its type: {@link SessionRecorder#FRAME}, {@link SessionRecorder#TRIGGER}, or
+     * {@link #END} once the session is over.
+     */
+    public int next() throws IOException {
+        try {
+            int read = in.read();
+            if (read == SessionRecorder.FRAME || read == SessionRecorder.TRIGGER) {
+                long micros = in.readInt();
+                long ticks = in.readInt();
+                if (read == SessionRecorder.FRAME) {
+                    readFrame();
+                }
+                type = read;
+                nanos += micros * 1000;
+                tick += ticks;
+            } else if (read == -1) {
+                type = END;
+            } else {
+                throw new IOException("Unknown session event " + read);
+            }
+        } catch (EOFException e) {
+            type = END;
+        }
+        return type;
+    }
+
+    private void readFrame() throws IOException {
+        interpolation = in.readFloat();
+        reloadPlaying = in.readBoolean();
+        for (int i = 0; i < 15; i++) {
+            if (i % 4 != 3) {
+                headView[i] = in.readFloat();
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            headRotation[i] = in.readFloat();
+        }
+    }
+
+    /**
+     * Copy the inputs of the current frame event into a frame.
+     */
+    public void copyInputs(FrameState frame) {
+        System.arraycopy(headView, 0, frame.headView, 0, 16);
+        System.arraycopy(headRotation, 0, frame.headRotation, 0, 4);
+        frame.reloadPlaying = reloadPlaying;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
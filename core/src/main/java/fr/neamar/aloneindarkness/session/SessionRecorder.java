@@ -0,0 +1,96 @@
+package fr.neamar.aloneindarkness.session;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * Writes everything a game depends on, so {@link SessionReplay} can play it again: the seed of
+ * its random generator, and the inputs of every frame and trigger along with the simulation tick
+ * they happened on.
+ * <p/>
+ * <p>Layout (big endian): magic, version, seed, maximum number of zombies and simulation ticks per
+ * second, then events until the end of the stream. Each event starts with its type, the
+ * microseconds and ticks elapsed since the previous event. A {@link #FRAME} goes on with the
+ * interpolation, the reload flag, the head view without its last row (always 0, 0, 0, 1) and the
+ * head rotation quaternion, 78 bytes in all. A {@link #TRIGGER} has nothing more, 9 bytes.
+ * <p/>
+ * <p>Calls must not overlap: frames and triggers are recorded in the order their effects happened.
+ */
+public class SessionRecorder {
+    public static final int MAGIC = 0x41494452;
+    public static final int VERSION = 1;
+
+    public static final int FRAME = 1;
+    public static final int TRIGGER = 2;
+
+    // Written from the GL thread, large enough to only reach the disk every few seconds
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private long lastMicros = 0;
+    private long lastTick = 0;
+
+    public int frames = 0;
+    public int triggers = 0;
+
+    public SessionRecorder(OutputStream out, long seed, int maxZombies, int ticksPerSecond) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeLong(seed);
+        this.out.writeInt(maxZombies);
+        this.out.writeInt(ticksPerSecond);
+    }
+
+    /**
+     * Record the inputs of a frame, once {@link fr.neamar.aloneindarkness.game.Game#onNewFrame}
+     * set its tick.
+     */
+    public void recordFrame(FrameState frame, float interpolation) throws IOException {
+        writeEvent(FRAME, frame.tick);
+        out.writeFloat(interpolation);
+        out.writeBoolean(frame.reloadPlaying);
+        for (int i = 0; i < 15; i++) {
+            if (i % 4 != 3) {
+                out.writeFloat(frame.headView[i]);
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            out.writeFloat(frame.headRotation[i]);
+        }
+        frames++;
+    }
+
+    /**
+     * @param tick Game.getLastTriggerTick() once the trigger was applied
+     */
+    public void recordTrigger(long tick) throws IOException {
+        writeEvent(TRIGGER, tick);
+        triggers++;
+    }
+
+    private void writeEvent(int type, long tick) throws IOException {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        out.writeByte(type);
+        out.writeInt((int) (micros - lastMicros));
+        out.writeInt((int) (tick - lastTick));
+        lastMicros = micros;
+        lastTick = tick;
+    }
+
+    /**
+     * Write the buffered events, e.g. when the app is paused and may be killed.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
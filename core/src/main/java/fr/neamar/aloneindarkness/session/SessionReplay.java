@@ -0,0 +1,69 @@
+package fr.neamar.aloneindarkness.session;
+
+import java.io.IOException;
+
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * Plays a recorded session again on a new game, created with the recorded seed.
+ * <p/>
+ * <p>There is no simulation thread: before each event, the game is ticked on the caller's
+ * thread up to the tick the event was recorded on. Frames, triggers and ticks then happen in the
+ * same order as in the recording, and the game goes through the very same states.
+ * <p/>
+ * <p>The pace is the caller's: one recorded frame per rendered frame replays in real time,
+ * a loop over {@link #nextFrame(FrameState)} at maximum speed.
+ */
+public class SessionReplay {
+    private final SessionPlayer player;
+    private final Game game;
+
+    // Of the latest frame
+    public float interpolation;
+    public long nanos;
+
+    public int frames = 0;
+    public int triggers = 0;
+
+    public SessionReplay(SessionPlayer player, Game game) {
+        this.player = player;
+        this.game = game;
+    }
+
+    /**
+     * Replay the ticks and triggers leading to the next recorded frame, and set its inputs.
+     * The frame is then to be given to {@link Game#onNewFrame(FrameState, float)} with
+     * {@link #interpolation}.
+     *
+     * @param frame from {@link fr.neamar.aloneindarkness.sim.FrameStateBuffer#beginFrame()}
+     * @return false once the session is over.
+     */
+    public boolean nextFrame(FrameState frame) throws IOException {
+        while (true) {
+            int type = player.next();
+            if (type == SessionPlayer.END) {
+                return false;
+            }
+
+            tickTo(player.tick);
+            if (type == SessionRecorder.TRIGGER) {
+                game.trigger();
+                triggers++;
+            } else {
+                player.copyInputs(frame);
+                interpolation = player.interpolation;
+                nanos = player.nanos;
+                frames++;
+                return true;
+            }
+        }
+    }
+
+    // The simulation stopped when the player died, so does the replay.
+    private void tickTo(long tick) {
+        while (!game.isPlayerDead() && game.getTickCount() < tick) {
+            game.tick();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package fr.neamar.aloneindarkness.sim;
+
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+
+/**
+ * Everything computed once per frame and shared by both eyes, the audio update and the trigger.
+ * <p/>
+ * <p>Instances are recycled by {@link FrameStateBuffer}: they are written by the GL thread in
+ * onNewFrame, then only read until the frame after next.
+ */
+public class FrameState {
+    public long frameIndex;
+
+    // Inputs, set before Game.onNewFrame(). Recorded and replayed by the session package.
+
+    // Head pose
+    public final float[] headView = new float[16];
+    public final float[] headRotation = new float[4];
+    // Whether the reload sound is still playing, reloading ends with it
+    public boolean reloadPlaying;
+
+    // Vertical angle of the gaze, positive when looking down
+    public float headPitch;
+
+    // Constant, but carried with the frame so readers never mix in scratch matrices.
+    public final float[] camera = new float[16];
+
+    // Written with the horde locked
+
+    // Game.getTickCount() when the frame was prepared
+    public long tick;
+
+    // Direction the user is looking at in the XZ plane, as atan2(z, x). NaN when looking
+    // straight up or down, or before the first frame.
+    public float gazeAngle = Float.NaN;
+    // Slot of the zombie the user is looking at, or -1
+    public int lookedAtZombie = -1;
+    // ZombieHorde.modCount when lookedAtZombie was computed, slots are only valid for that horde
+    public int hordeModCount;
+
+    // Model matrices of the zombies to draw
+    public final float[] zombieModels;
+    // LevelOfDetail tier of each zombie
+    public final int[] zombieTiers;
+    public int zombieCount;
+
+    public FrameState(int capacity) {
+        zombieModels = new float[capacity * ZombieHorde.MATRIX_STRIDE];
+        zombieTiers = new int[capacity];
+    }
+
+    /**
+     * Copy the current model matrices and tiers of the horde. The horde must be locked.
+     */
+    public void captureZombies(ZombieHorde horde) {
+        zombieCount = horde.size();
+        hordeModCount = horde.modCount;
+        System.arraycopy(horde.modelCubes, 0, zombieModels, 0, zombieCount * ZombieHorde.MATRIX_STRIDE);
+        System.arraycopy(horde.tiers, 0, zombieTiers, 0, zombieCount);
+    }
+}
@@ -0,0 +1,50 @@
+package fr.neamar.aloneindarkness.sim;
+
+/**
+ * Double-buffered {@link FrameState}, handed from the GL thread to readers without locking.
+ * <p/>
+ * <p>The GL thread fills the back state in onNewFrame and publishes it, both eyes then read the
+ * front state. Readers on other threads may only use the fields written with the horde locked
+ * (gaze and zombies), and must hold the horde monitor while doing so: the state is recycled one
+ * frame after it has been replaced.
+ */
+public class FrameStateBuffer {
+    private final FrameState[] states;
+    private volatile FrameState front;
+
+    private long frameIndex = 0;
+
+    public FrameStateBuffer(int capacity) {
+        states = new FrameState[]{new FrameState(capacity), new FrameState(capacity)};
+        front = states[0];
+    }
+
+    /**
+     * Set the constant camera matrix of every state.
+     */
+    public void setCamera(float[] camera) {
+        for (FrameState state : states) {
+            System.arraycopy(camera, 0, state.camera, 0, state.camera.length);
+        }
+    }
+
+    /**
+     * @return the state to fill for the new frame. GL thread only.
+     */
+    public FrameState beginFrame() {
+        FrameState back = front == states[0] ? states[1] : states[0];
+        back.frameIndex = ++frameIndex;
+        return back;
+    }
+
+    /**
+     * Make a state filled since {@link #beginFrame()} visible to readers. GL thread only.
+     */
+    public void publish(FrameState state) {
+        front = state;
+    }
+
+    public FrameState front() {
+        return front;
+    }
+}
@@ -0,0 +1,31 @@
+package fr.neamar.aloneindarkness;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Bytes allocated by the current thread, for tests asserting a path allocates nothing.
+ */
+public final class Allocations {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    static {
+        // The first call allocates, so that later ones don't
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    private Allocations() {
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread. Skips the test when the JVM can't tell.
+     */
+    public static long threadBytes() {
+        assumeTrue("The JVM can't count allocated bytes", THREADS instanceof com.sun.management.ThreadMXBean);
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,88 @@
+package fr.neamar.aloneindarkness.audio;
+
+import org.junit.Test;
+
+import fr.neamar.aloneindarkness.entity.LevelOfDetail;
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.headless.HeadlessAudio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Zombie sound moves too small to be heard never reach the engine, however seldom the voice is
+ * refreshed.
+ */
+public class SoundTransformsTest {
+    // Far enough to be in the far tier, whose voices are refreshed the least often
+    private static final float DISTANCE = 7f;
+    private static final int TICKS = 100;
+    // Walks less than the minimal distance over all the ticks
+    private static final float SPEED = SoundTransforms.DEFAULT_MIN_DISTANCE / TICKS / 2;
+
+    private final SoundTransforms transforms = new SoundTransforms(4,
+            SoundTransforms.DEFAULT_MIN_DISTANCE, SoundTransforms.DEFAULT_MIN_ANGLE);
+    private int positionsSent = 0;
+
+    private final SoundTransforms.Sink sink = new SoundTransforms.Sink() {
+        @Override
+        public void setSoundObjectPosition(int soundId, float x, float y, float z) {
+            positionsSent++;
+        }
+
+        @Override
+        public void setSoundVolume(int soundId, float volume) {
+        }
+    };
+
+    // Zombie sounds go through the transforms, as in GvrGameAudio
+    private final HeadlessAudio audio = new HeadlessAudio() {
+        @Override
+        public void setSoundObjectPosition(int soundId, float x, float y, float z) {
+            transforms.setPosition(soundId, x, y, z);
+        }
+
+        @Override
+        public void setSoundVolume(int soundId, float volume) {
+            transforms.setVolume(soundId, volume);
+        }
+
+        @Override
+        public void playSound(int soundId, boolean loopingEnabled) {
+            transforms.flush(soundId, sink);
+        }
+
+        @Override
+        public void stopSound(int soundId) {
+            transforms.remove(soundId);
+        }
+    };
+
+    @Test
+    public void farZombieMovingTooLittleSendsNothing() {
+        moveFarZombie(1);
+    }
+
+    @Test
+    public void farZombieMovingTooLittleSendsNothingWithMoreFramesThanTicks() {
+        moveFarZombie(2);
+    }
+
+    private void moveFarZombie(int framesPerTick) {
+        ZombieHorde horde = new ZombieHorde(1, 42);
+        horde.spawn(0f, 0f, -DISTANCE, SPEED, audio);
+        assertEquals(LevelOfDetail.FAR, horde.tiers[0]);
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            horde.tick(audio);
+            for (int frame = 0; frame < framesPerTick; frame++) {
+                transforms.flush(sink);
+            }
+        }
+
+        assertEquals(LevelOfDetail.FAR, horde.tiers[0]);
+        assertTrue("The zombie has a voice", horde.footstepSoundIds[0] != HeadlessAudio.INVALID_ID);
+        assertEquals("Positions sent, only when the voice started", 1, positionsSent);
+        assertTrue("Moves were recorded and skipped", transforms.skipped > 0);
+    }
+}
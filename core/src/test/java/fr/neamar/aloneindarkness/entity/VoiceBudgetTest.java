@@ -0,0 +1,64 @@
+package fr.neamar.aloneindarkness.entity;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import fr.neamar.aloneindarkness.headless.HeadlessAudio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The voice budget caps the sound objects playing, voices fading out included.
+ */
+public class VoiceBudgetTest {
+    private static final int VOICES = 4;
+    private static final float FAR = 3.5f;
+    private static final float CLOSE = 2.5f;
+
+    private final Set<Integer> playing = new HashSet<>();
+    private final HeadlessAudio audio = new HeadlessAudio() {
+        @Override
+        public void playSound(int soundId, boolean loopingEnabled) {
+            playing.add(soundId);
+        }
+
+        @Override
+        public void stopSound(int soundId) {
+            playing.remove(soundId);
+        }
+    };
+
+    @Test
+    public void fadingVoicesCountAgainstTheBudget() {
+        ZombieHorde horde = new ZombieHorde(4, 42);
+        horde.voiceBudget.setVoices(VOICES);
+
+        // Standing still, their 4 sources get the 4 voices
+        horde.spawn(FAR, 0f, 0f, 0f, audio);
+        horde.spawn(-FAR, 0f, 0f, 0f, audio);
+        tick(horde, ZombieHorde.FADE_TICKS);
+        assertEquals(VOICES, playing.size());
+
+        // Their breathing outranks the footsteps of the others, which fade out to make room
+        horde.spawn(0f, 0f, CLOSE, 0f, audio);
+        horde.spawn(0f, 0f, -CLOSE, 0f, audio);
+        tick(horde, 3 * ZombieHorde.FADE_TICKS);
+
+        assertEquals(2, horde.voiceBudget.demotions);
+        assertEquals(VOICES + 2, horde.voiceBudget.promotions);
+        for (int i = 0; i < horde.size(); i++) {
+            assertTrue(horde.breathingSoundIds[i] != HeadlessAudio.INVALID_ID);
+        }
+    }
+
+    private void tick(ZombieHorde horde, int ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            assertEquals(-1, horde.tick(audio));
+            assertTrue("Voices playing: " + playing.size(), playing.size() <= VOICES);
+            assertEquals("Voices reported", playing.size(), horde.voiceBudget.realVoices);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package fr.neamar.aloneindarkness.entity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.Allocations;
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.headless.HeadlessAudio;
+import fr.neamar.aloneindarkness.headless.HeadlessRenderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Killed zombies are recycled: spawning into their slots allocates nothing, and each spawn rolls
+ * a new speed.
+ */
+public class ZombiePoolTest {
+    private static final int ZOMBIES = 100;
+    private static final int CYCLES = 10000;
+
+    private final HeadlessAudio audio = new HeadlessAudio();
+    private final Game game = new Game(ZOMBIES, audio, new HeadlessRenderer(), new Game.Listener() {
+        @Override
+        public void onZombieKilled() {
+        }
+
+        @Override
+        public void onPlayerDead() {
+        }
+    }, new Random(42));
+    private final ZombieHorde horde = game.horde;
+
+    @Before
+    public void fillHorde() {
+        synchronized (horde) {
+            while (game.spawnZombie() != -1) {
+                // Until the horde is full
+            }
+        }
+        assertEquals(ZOMBIES, horde.size());
+    }
+
+    @Test
+    public void spawnKillCyclesDoNotAllocate() {
+        // The first round includes JIT compilation
+        spawnKillCycles();
+        long before = Allocations.threadBytes();
+        spawnKillCycles();
+        long bytes = Allocations.threadBytes() - before;
+
+        assertEquals("Bytes allocated by " + CYCLES + " spawn/kill cycles", 0, bytes);
+        assertEquals(2 * CYCLES, horde.poolHits);
+        assertEquals(ZOMBIES, horde.poolMisses);
+        assertEquals(ZOMBIES, horde.peakSize);
+    }
+
+    @Test
+    public void spawnsRollTheirSpeed() {
+        float killed = horde.speeds[1];
+        long hits = horde.poolHits;
+        synchronized (horde) {
+            horde.kill(1, audio);
+            game.spawnZombie();
+        }
+        // The last zombie moved to the freed slot, the new one took the slot it left
+        assertEquals(hits + 1, horde.poolHits);
+        assertTrue(horde.speeds[ZOMBIES - 1] != killed);
+        assertTrue(horde.speeds[ZOMBIES - 1] != horde.speeds[1]);
+
+        float min = Float.MAX_VALUE;
+        float max = 0;
+        // The first zombie stands still until the player moves
+        for (int i = 1; i < ZOMBIES; i++) {
+            min = Math.min(min, horde.speeds[i]);
+            max = Math.max(max, horde.speeds[i]);
+        }
+        assertTrue(min >= Game.ZOMBIE_SPEED * (1 - Game.ZOMBIE_SPEED_SPREAD));
+        assertTrue(max <= Game.ZOMBIE_SPEED * (1 + Game.ZOMBIE_SPEED_SPREAD));
+        assertTrue("Speeds are rolled, not all the same", max > min);
+    }
+
+    private void spawnKillCycles() {
+        synchronized (horde) {
+            for (int cycle = 0; cycle < CYCLES; cycle++) {
+                horde.kill(cycle % horde.size(), audio);
+                game.spawnZombie();
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package fr.neamar.aloneindarkness.game;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.Allocations;
+import fr.neamar.aloneindarkness.headless.HeadlessAudio;
+import fr.neamar.aloneindarkness.headless.HeadlessRenderer;
+import fr.neamar.aloneindarkness.math.Mat4;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The frame loop must not allocate once warmed up: on the headset, garbage collections are
+ * dropped frames.
+ * <p/>
+ * <p>A scripted player turns around, shoots the zombie in sight and looks down to reload once
+ * the magazine is empty, so kills, spawns, reloads and deaths are part of the measured frames.
+ */
+public class GameAllocationTest {
+    private static final int ZOMBIES = 200;
+    private static final int WARM_UP_FRAMES = 50000;
+    private static final int FRAMES = 20000;
+
+    private final HeadlessAudio audio = new HeadlessAudio();
+    private final Game game = new Game(ZOMBIES, audio, new HeadlessRenderer(), new Game.Listener() {
+        @Override
+        public void onZombieKilled() {
+        }
+
+        @Override
+        public void onPlayerDead() {
+        }
+    }, new Random(42));
+
+    private float yaw = 0f;
+    private boolean reloading = false;
+
+    @Test
+    public void framesDoNotAllocateOnceWarmedUp() {
+        fillHorde();
+        run(WARM_UP_FRAMES);
+
+        long deathsBefore = audio.zombieDeaths;
+        long before = Allocations.threadBytes();
+        run(FRAMES);
+        long bytes = Allocations.threadBytes() - before;
+
+        assertTrue("The measured frames must kill zombies", audio.zombieDeaths > deathsBefore);
+        assertEquals("Bytes allocated by " + FRAMES + " frames", 0, bytes);
+    }
+
+    private void fillHorde() {
+        synchronized (game.horde) {
+            while (game.spawnZombie() != -1) {
+                // Until the horde is full
+            }
+        }
+    }
+
+    // One tick and one frame each, as HeadlessDriver
+    private void run(int frames) {
+        for (int i = 0; i < frames; i++) {
+            audio.advance();
+            if (game.tick()) {
+                game.restart();
+                fillHorde();
+                reloading = false;
+                continue;
+            }
+
+            if (game.getBulletsLeft() == 0) {
+                reloading = true;
+            } else if (game.getBulletsLeft() == Game.MAGAZINE_SIZE) {
+                reloading = false;
+            }
+
+            FrameState frame = game.frameStates.beginFrame();
+            float pitch = reloading ? Game.PITCH_LIMIT + 0.1f : 0f;
+            float horizontal = (float) Math.cos(pitch);
+            Mat4.setLookAt(frame.headView, 0, 0f, 0f, 0f, (float) Math.cos(yaw) * horizontal, (float) -Math.sin(pitch),
+                    (float) Math.sin(yaw) * horizontal, 0f, 1f, 0f);
+            frame.reloadPlaying = audio.isReloadPlaying();
+            game.onNewFrame(frame, 1f);
+
+            if (reloading) {
+                continue;
+            }
+            if (frame.lookedAtZombie == -1) {
+                yaw += 0.05f;
+            } else {
+                game.trigger();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package fr.neamar.aloneindarkness.game;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.headless.HeadlessAudio;
+import fr.neamar.aloneindarkness.headless.HeadlessRenderer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The trigger shoots where the player looked in the latest frame, and nowhere before the first.
+ */
+public class TriggerTest {
+    private final HeadlessAudio audio = new HeadlessAudio();
+    private final Game game = new Game(4, audio, new HeadlessRenderer(), new Game.Listener() {
+        @Override
+        public void onZombieKilled() {
+        }
+
+        @Override
+        public void onPlayerDead() {
+        }
+    }, new Random(42));
+
+    @Test
+    public void triggerBeforeTheFirstFrameHitsNothing() {
+        // Along +x, where a gaze angle of 0 would aim
+        synchronized (game.horde) {
+            game.horde.spawn(Game.MAX_MODEL_DISTANCE / 2, 0f, 0f, 0f, audio);
+        }
+
+        assertTrue(game.trigger());
+        assertEquals(Game.MAGAZINE_SIZE - 1, game.getBulletsLeft());
+        assertEquals(0, audio.zombieDeaths);
+        assertEquals(2, game.horde.size());
+    }
+}
@@ -0,0 +1,56 @@
+package fr.neamar.aloneindarkness.gl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProgramCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void newContextLoadsSavedBinaries() throws Exception {
+        File directory = folder.newFolder("programs");
+
+        RecordingGl gl = new RecordingGl("OpenGL ES 3.0");
+        ProgramCache programs = new ProgramCache(gl, directory);
+        programs.onContextCreated();
+        assertTrue(programs.isBinarySupported());
+        programs.getProgram("vertex", "fragment");
+        assertEquals(1, programs.misses);
+        assertEquals(1, gl.programsLinked);
+        // Only retrievable because the hint was set before linking
+        assertEquals(1, directory.list().length);
+
+        gl = new RecordingGl("OpenGL ES 3.0");
+        programs = new ProgramCache(gl, directory);
+        programs.onContextCreated();
+        programs.getProgram("vertex", "fragment");
+        assertEquals(1, programs.hits);
+        assertEquals(0, gl.programsLinked);
+        assertEquals(1, gl.programBinariesLoaded);
+    }
+
+    @Test
+    public void openGlEs2AlwaysCompiles() throws Exception {
+        File directory = folder.newFolder("programs");
+
+        for (int context = 0; context < 2; context++) {
+            RecordingGl gl = new RecordingGl("OpenGL ES 2.0");
+            ProgramCache programs = new ProgramCache(gl, directory);
+            programs.onContextCreated();
+            // Left pending, the error would fail the next check of the caller
+            assertEquals(Gl.GL_NO_ERROR, gl.glGetError());
+            assertFalse(programs.isBinarySupported());
+            programs.getProgram("vertex", "fragment");
+            assertEquals(1, gl.programsLinked);
+        }
+        assertEquals(0, directory.list().length);
+    }
+}
@@ -0,0 +1,307 @@
+package fr.neamar.aloneindarkness.headless;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.audio.VoiceBudget;
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.math.Mat4;
+import fr.neamar.aloneindarkness.session.SessionPlayer;
+import fr.neamar.aloneindarkness.session.SessionReplay;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * Plays the game without a headset, as fast as the CPU allows, to soak-test the game core.
+ * <p/>
+ * <p>A scripted player turns around until a zombie is in sight, shoots it, and looks down to
+ * reload once the magazine is empty. One frame is prepared per tick. When the player dies, a new
+ * game starts on the same horde.
+ * <p/>
+ * <p>Every report prints throughput, heap usage and bytes allocated per tick: the game must
+ * not allocate once warmed up, a slowly growing figure is a leak.
+ * <p/>
+ * <p>With --replay, plays a session recorded on a headset instead, at maximum speed or in real
+ * time with --real-time, and prints the state the game ended in: the same recording must always
+ * end in the same state.
+ * <p/>
+ * <p>Part of the :core tests, not shipped with the game. See {@link #USAGE} for the options,
+ * --help prints them.
+ */
+public class HeadlessDriver {
+    public static final String USAGE = "Usage: HeadlessDriver [--ticks N] [--zombies N] [--seed N] [--report N] [--max-bytes-per-tick N] [--voices N]\n"
+            + "   or: HeadlessDriver --replay FILE [--real-time true]";
+
+    // Turning speed while looking for a zombie, in radians per frame
+    public static final float TURN_SPEED = 0.05f;
+    // Minimal delay between two shots, in ticks
+    public static final int SHOT_INTERVAL_TICKS = 20;
+    // Head pitch used to reload, beyond Game.PITCH_LIMIT
+    public static final float RELOAD_PITCH = 1.3f;
+
+    private final Game game;
+    private final HeadlessAudio audio;
+    private final HeadlessRenderer renderer;
+
+    private float yaw = (float) (-Math.PI / 2);
+    private boolean reloading = false;
+    private long lastShotTick = Long.MIN_VALUE / 2;
+
+    public long tick = 0;
+    public long games = 1;
+    public long kills = 0;
+
+    public HeadlessDriver(int zombies, long seed) {
+        audio = new HeadlessAudio();
+        renderer = new HeadlessRenderer();
+        game = new Game(zombies, audio, renderer, new Game.Listener() {
+            @Override
+            public void onZombieKilled() {
+                kills++;
+            }
+
+            @Override
+            public void onPlayerDead() {
+            }
+        }, new Random(seed));
+
+        fillHorde();
+    }
+
+    // Large hordes from the start, killed zombies are replaced anyway
+    private void fillHorde() {
+        synchronized (game.horde) {
+            while (game.spawnZombie() != -1) {
+                // Until the horde is full
+            }
+        }
+    }
+
+    /**
+     * Run one simulation tick and one frame.
+     */
+    public void step() {
+        tick++;
+        audio.advance();
+
+        if (game.tick()) {
+            games++;
+            game.restart();
+            fillHorde();
+            reloading = false;
+            return;
+        }
+
+        if (game.getBulletsLeft() == 0) {
+            reloading = true;
+        } else if (game.getBulletsLeft() == Game.MAGAZINE_SIZE) {
+            reloading = false;
+        }
+
+        FrameState frame = game.frameStates.beginFrame();
+        setHeadView(frame.headView, yaw, reloading ? RELOAD_PITCH : 0f);
+        frame.reloadPlaying = audio.isReloadPlaying();
+        game.onNewFrame(frame, 1f);
+
+        if (reloading) {
+            return;
+        }
+
+        if (frame.lookedAtZombie == -1) {
+            yaw += TURN_SPEED;
+        } else if (tick - lastShotTick >= SHOT_INTERVAL_TICKS) {
+            lastShotTick = tick;
+            game.trigger();
+        }
+    }
+
+    // View matrix of a head at the origin, looking toward yaw (as atan2(z, x)) and down by pitch.
+    private static void setHeadView(float[] headView, float yaw, float pitch) {
+        float horizontal = (float) Math.cos(pitch);
+        float x = (float) Math.cos(yaw) * horizontal;
+        float y = (float) -Math.sin(pitch);
+        float z = (float) Math.sin(yaw) * horizontal;
+        Mat4.setLookAt(headView, 0, 0f, 0f, 0f, x, y, z, 0f, 1f, 0f);
+    }
+
+    /**
+     * Replay a recorded session.
+     *
+     * @param realTime wait for each frame to be due, rather than replaying as fast as possible
+     */
+    private static void replay(String path, boolean realTime) throws IOException, InterruptedException {
+        SessionPlayer player = new SessionPlayer(new FileInputStream(path));
+        HeadlessAudio audio = new HeadlessAudio();
+        HeadlessRenderer renderer = new HeadlessRenderer();
+        Game game = new Game(player.maxZombies, audio, renderer, new Game.Listener() {
+            @Override
+            public void onZombieKilled() {
+            }
+
+            @Override
+            public void onPlayerDead() {
+            }
+        }, new Random(player.seed));
+        SessionReplay replay = new SessionReplay(player, game);
+        System.out.println("Replay: " + path + ", seed " + player.seed + ", " + player.maxZombies + " zombies, "
+                + player.ticksPerSecond + " ticks/s" + (realTime ? ", real time" : ""));
+
+        long start = System.nanoTime();
+        while (!game.isPlayerDead()) {
+            FrameState frame = game.frameStates.beginFrame();
+            if (!replay.nextFrame(frame)) {
+                break;
+            }
+            if (realTime) {
+                long late = System.nanoTime() - start - replay.nanos;
+                if (late < 0) {
+                    Thread.sleep(-late / 1000000, (int) (-late % 1000000));
+                }
+            }
+            game.onNewFrame(frame, replay.interpolation);
+        }
+        long elapsed = System.nanoTime() - start;
+        player.close();
+
+        // Where every zombie stands, enough to tell two replays apart
+        int state = 1;
+        synchronized (game.horde) {
+            for (int i = 0; i < game.horde.size() * ZombieHorde.POSITION_STRIDE; i++) {
+                state = 31 * state + Float.floatToIntBits(game.horde.positions[i]);
+            }
+        }
+
+        System.out.println(String.format("Replayed %d frames and %d triggers in %.3f s (recorded in %.3f s), %.0f frames/s",
+                replay.frames, replay.triggers, elapsed / 1e9, replay.nanos / 1e9, replay.frames * 1e9 / elapsed));
+        System.out.println(String.format("End state: tick %d, kills %d, bullets %d, zombies %d, player %s, positions %08x",
+                game.getTickCount(), audio.zombieDeaths, game.getBulletsLeft(), game.horde.size(),
+                game.isPlayerDead() ? "dead" : "alive", state));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long ticks = 10000000L;
+        int zombies = 1000;
+        long seed = 42;
+        long reportEvery = 1000000L;
+        double maxBytesPerTick = -1;
+        int voices = VoiceBudget.DEFAULT_VOICES;
+        String replayPath = null;
+        boolean realTime = false;
+
+        for (int i = 0; i < args.length; i += 2) {
+            if (args[i].equals("--help")) {
+                exitWithUsage(null);
+            }
+            if (i + 1 == args.length || args[i + 1].startsWith("--")) {
+                exitWithUsage("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--ticks":
+                    ticks = Long.parseLong(value);
+                    break;
+                case "--zombies":
+                    zombies = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--report":
+                    reportEvery = Long.parseLong(value);
+                    break;
+                case "--max-bytes-per-tick":
+                    maxBytesPerTick = Double.parseDouble(value);
+                    break;
+                case "--voices":
+                    voices = Integer.parseInt(value);
+                    break;
+                case "--replay":
+                    replayPath = value;
+                    break;
+                case "--real-time":
+                    realTime = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    exitWithUsage("Unknown option " + args[i]);
+            }
+        }
+
+        if (replayPath != null) {
+            replay(replayPath, realTime);
+            return;
+        }
+
+        HeadlessDriver driver = new HeadlessDriver(zombies, seed);
+        VoiceBudget voiceBudget = driver.game.horde.voiceBudget;
+        voiceBudget.setVoices(voices);
+        AllocationCounter allocations = new AllocationCounter();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        System.out.println("Soak test: " + ticks + " ticks, " + zombies + " zombies, seed " + seed);
+
+        double worstBytesPerTick = 0;
+        long intervalStart = System.nanoTime();
+        long intervalBytes = allocations.get();
+        while (driver.tick < ticks) {
+            driver.step();
+
+            if (driver.tick % reportEvery == 0 || driver.tick == ticks) {
+                long now = System.nanoTime();
+                long bytes = allocations.get();
+                long intervalTicks = driver.tick % reportEvery == 0 ? reportEvery : driver.tick % reportEvery;
+                double ticksPerSecond = intervalTicks * 1e9 / (now - intervalStart);
+                double bytesPerTick = bytes < 0 ? Double.NaN : (double) (bytes - intervalBytes) / intervalTicks;
+
+                // The first interval includes class loading and JIT warm up
+                if (driver.tick > reportEvery) {
+                    worstBytesPerTick = Math.max(worstBytesPerTick, bytesPerTick);
+                }
+
+                System.out.println(String.format("tick %d: %.0f ticks/s, %.3f bytes/tick, heap %d KB, games %d, kills %d, shots %d, voices %d real %d virtual",
+                        driver.tick, ticksPerSecond, bytesPerTick, memory.getHeapMemoryUsage().getUsed() / 1024,
+                        driver.games, driver.kills, driver.audio.shots, voiceBudget.realVoices, voiceBudget.virtualSources));
+
+                intervalStart = System.nanoTime();
+                intervalBytes = allocations.get();
+            }
+        }
+
+        System.out.println(String.format("Frames %d, zombies drawn %d, sound objects created %d",
+                driver.renderer.frames, driver.renderer.zombiesDrawn, driver.audio.soundObjectsCreated));
+
+        if (maxBytesPerTick >= 0 && worstBytesPerTick > maxBytesPerTick) {
+            System.out.println(String.format("FAILED: %.3f bytes allocated per tick, at most %.3f expected", worstBytesPerTick, maxBytesPerTick));
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Print the usage, after the error if any, and exit: with an error status unless the usage
+     * was asked for.
+     */
+    private static void exitWithUsage(String error) {
+        if (error != null) {
+            System.err.println(error);
+        }
+        System.err.println(USAGE);
+        System.exit(error == null ? 0 : 1);
+    }
+
+    /**
+     * Bytes allocated by the current thread, when the JVM can tell.
+     */
+    private static class AllocationCounter {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        long get() {
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package fr.neamar.aloneindarkness.math;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link Mat4} must return the very same floats as android.opengl.Matrix, here
+ * {@link ReferenceMatrix}, so replacing it changed neither gameplay nor rendering.
+ */
+public class Mat4Test {
+    // Inputs per operation, two millions in all
+    private static final int ITERATIONS = 250000;
+
+    private final Random random = new Random(42);
+
+    private final float[] lhs = new float[16];
+    private final float[] rhs = new float[16];
+    private final float[] vector = new float[4];
+    private final float[] expected = new float[16];
+    private final float[] expectedModelView = new float[16];
+    private final float[] actual = new float[16];
+    private final float[] actualModelView = new float[16];
+    private final float[] expectedVector = new float[4];
+    private final float[] actualVector = new float[4];
+
+    @Test
+    public void setTranslation() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            float x = nextFloat();
+            float y = nextFloat();
+            float z = nextFloat();
+            ReferenceMatrix.setIdentityM(expected, 0);
+            ReferenceMatrix.translateM(expected, 0, x, y, z);
+            Mat4.setTranslation(actual, 0, x, y, z);
+            assertSame("setTranslation", expected, actual);
+        }
+    }
+
+    @Test
+    public void translate() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            fill(lhs);
+            float x = nextFloat();
+            float y = nextFloat();
+            float z = nextFloat();
+            System.arraycopy(lhs, 0, expected, 0, 16);
+            System.arraycopy(lhs, 0, actual, 0, 16);
+            ReferenceMatrix.translateM(expected, 0, x, y, z);
+            Mat4.translate(actual, 0, x, y, z);
+            assertSame("translate", expected, actual);
+        }
+    }
+
+    @Test
+    public void setLookAt() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            fill(vector);
+            float eyeX = nextFloat();
+            float eyeY = nextFloat();
+            float eyeZ = nextFloat();
+            ReferenceMatrix.setLookAtM(expected, 0, eyeX, eyeY, eyeZ, vector[0], vector[1], vector[2], 0f, 1f, 0f);
+            Mat4.setLookAt(actual, 0, eyeX, eyeY, eyeZ, vector[0], vector[1], vector[2], 0f, 1f, 0f);
+            assertSame("setLookAt", expected, actual);
+        }
+    }
+
+    @Test
+    public void multiply() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            fill(lhs);
+            fill(rhs);
+            ReferenceMatrix.multiplyMM(expected, 0, lhs, 0, rhs, 0);
+            Mat4.multiply(actual, 0, lhs, 0, rhs, 0);
+            assertSame("multiply", expected, actual);
+        }
+    }
+
+    @Test
+    public void modelViewProjection() {
+        float[] projection = new float[16];
+        for (int i = 0; i < ITERATIONS; i++) {
+            fill(projection);
+            fill(lhs);
+            fill(rhs);
+            ReferenceMatrix.multiplyMM(expectedModelView, 0, lhs, 0, rhs, 0);
+            ReferenceMatrix.multiplyMM(expected, 0, projection, 0, expectedModelView, 0);
+            Mat4.modelViewProjection(actual, 0, actualModelView, 0, projection, 0, lhs, 0, rhs, 0);
+            assertSame("modelViewProjection", expected, actual);
+            assertSame("modelViewProjection model view", expectedModelView, actualModelView);
+        }
+    }
+
+    @Test
+    public void translationProjection() {
+        float[] projection = new float[16];
+        TranslationProjection translationProjection = new TranslationProjection();
+        for (int i = 0; i < ITERATIONS; i++) {
+            // A few models per view, as for the horde
+            if (i % 8 == 0) {
+                fill(projection);
+                fill(lhs);
+                translationProjection.set(projection, 0, lhs, 0);
+            }
+            Mat4.setTranslation(rhs, 0, nextFloat(), nextFloat(), nextFloat());
+            ReferenceMatrix.multiplyMM(expectedModelView, 0, lhs, 0, rhs, 0);
+            ReferenceMatrix.multiplyMM(expected, 0, projection, 0, expectedModelView, 0);
+            translationProjection.project(actual, 0, actualModelView, 0, rhs, 0);
+            assertSame("translationProjection", expected, actual);
+            assertSame("translationProjection model view", expectedModelView, actualModelView);
+        }
+    }
+
+    @Test
+    public void transform() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            fill(lhs);
+            fill(vector);
+            ReferenceMatrix.multiplyMV(expectedVector, 0, lhs, 0, vector, 0);
+            Mat4.transform(actualVector, 0, lhs, 0, vector, 0);
+            assertSame("transform", expectedVector, actualVector);
+        }
+    }
+
+    @Test
+    public void transformPoint() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            fill(lhs);
+            fill(vector);
+            vector[3] = 1f;
+            ReferenceMatrix.multiplyMV(expectedVector, 0, lhs, 0, vector, 0);
+            Mat4.transformPoint(actualVector, 0, lhs, 0, vector[0], vector[1], vector[2]);
+            assertSame("transformPoint", expectedVector, actualVector);
+        }
+    }
+
+    private float nextFloat() {
+        return (random.nextFloat() - 0.5f) * 40f;
+    }
+
+    private void fill(float[] m) {
+        for (int i = 0; i < m.length; i++) {
+            m[i] = nextFloat();
+        }
+    }
+
+    // Bit for bit, so that -0 and 0 differ
+    private static void assertSame(String operation, float[] expected, float[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(operation + " at " + i, Float.floatToRawIntBits(expected[i]), Float.floatToRawIntBits(actual[i]));
+        }
+    }
+}
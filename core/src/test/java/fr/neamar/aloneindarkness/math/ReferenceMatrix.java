@@ -0,0 +1,119 @@
+package fr.neamar.aloneindarkness.math;
+
+/**
+ * Plain Java port of the android.opengl.Matrix methods {@link Mat4} replaces, the reference of
+ * {@link Mat4Test}.
+ * <p/>
+ * <p>multiplyMM and multiplyMV are native on Android. They are ported from
+ * android_opengl_Matrix.cpp keeping the same operation order, so results are bit for bit the
+ * ones of a device. The other methods are copied from the Java implementation.
+ */
+public class ReferenceMatrix {
+    private ReferenceMatrix() {
+    }
+
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int i = 0; i < 4; i++) {
+            final float rhs_i0 = rhs[rhsOffset + 4 * i];
+            float ri0 = lhs[lhsOffset] * rhs_i0;
+            float ri1 = lhs[lhsOffset + 1] * rhs_i0;
+            float ri2 = lhs[lhsOffset + 2] * rhs_i0;
+            float ri3 = lhs[lhsOffset + 3] * rhs_i0;
+            for (int j = 1; j < 4; j++) {
+                final float rhs_ij = rhs[rhsOffset + 4 * i + j];
+                ri0 += lhs[lhsOffset + 4 * j] * rhs_ij;
+                ri1 += lhs[lhsOffset + 4 * j + 1] * rhs_ij;
+                ri2 += lhs[lhsOffset + 4 * j + 2] * rhs_ij;
+                ri3 += lhs[lhsOffset + 4 * j + 3] * rhs_ij;
+            }
+            result[resultOffset + 4 * i] = ri0;
+            result[resultOffset + 4 * i + 1] = ri1;
+            result[resultOffset + 4 * i + 2] = ri2;
+            result[resultOffset + 4 * i + 3] = ri3;
+        }
+    }
+
+    public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        float x = rhsVec[rhsVecOffset];
+        float y = rhsVec[rhsVecOffset + 1];
+        float z = rhsVec[rhsVecOffset + 2];
+        float w = rhsVec[rhsVecOffset + 3];
+        for (int i = 0; i < 4; i++) {
+            int m = lhsMatOffset + i;
+            resultVec[resultVecOffset + i] = lhsMat[m] * x + lhsMat[m + 4] * y + lhsMat[m + 8] * z + lhsMat[m + 12] * w;
+        }
+    }
+
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++) {
+            sm[smOffset + i] = 0;
+        }
+        for (int i = 0; i < 16; i += 5) {
+            sm[smOffset + i] = 1.0f;
+        }
+    }
+
+    public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            int mi = i + mOffset;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    public static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    public static void setLookAtM(float[] rm, int rmOffset,
+                                  float eyeX, float eyeY, float eyeZ,
+                                  float centerX, float centerY, float centerZ,
+                                  float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+
+        // Normalize f
+        float rlf = 1.0f / length(fx, fy, fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // compute s = f x up (x means "cross product")
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+
+        // and normalize s
+        float rls = 1.0f / length(sx, sy, sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // compute u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        rm[rmOffset] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0.0f;
+
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0.0f;
+
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0.0f;
+
+        rm[rmOffset + 12] = 0.0f;
+        rm[rmOffset + 13] = 0.0f;
+        rm[rmOffset + 14] = 0.0f;
+        rm[rmOffset + 15] = 1.0f;
+
+        translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+    }
+}
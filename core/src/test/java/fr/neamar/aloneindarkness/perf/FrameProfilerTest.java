@@ -0,0 +1,48 @@
+package fr.neamar.aloneindarkness.perf;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameProfilerTest {
+    private final FrameProfiler profiler = new FrameProfiler(1000000000L / 60);
+
+    @Test
+    public void simulationTicksAreHandedOverAtTheEndOfTheFrame() throws InterruptedException {
+        profiler.beginFrame();
+        Thread simulation = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000; i++) {
+                    profiler.recordSimulationTick(2000000L);
+                }
+            }
+        });
+        simulation.start();
+        simulation.join();
+
+        LatencyHistogram histogram = profiler.getHistogram(FrameProfiler.STAGE_SIMULATION);
+        assertEquals(0, histogram.getCount());
+        profiler.endFrame();
+        assertEquals(1000, histogram.getCount());
+        assertEquals(2000, histogram.getMax());
+    }
+
+    @Test
+    public void resetHappensWhenTheNextFrameBegins() {
+        profiler.beginFrame();
+        profiler.recordSimulationTick(1000000L);
+        profiler.endFrame();
+
+        profiler.requestReset();
+        profiler.recordSimulationTick(1000000L);
+        assertEquals(1, profiler.getHistogram(FrameProfiler.STAGE_FRAME).getCount());
+
+        profiler.beginFrame();
+        assertEquals(0, profiler.getHistogram(FrameProfiler.STAGE_FRAME).getCount());
+        profiler.endFrame();
+        // Ticks recorded before the reset are forgotten with the rest
+        assertEquals(0, profiler.getHistogram(FrameProfiler.STAGE_SIMULATION).getCount());
+        assertEquals(1, profiler.getHistogram(FrameProfiler.STAGE_FRAME).getCount());
+    }
+}
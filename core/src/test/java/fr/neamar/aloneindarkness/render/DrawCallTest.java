@@ -0,0 +1,80 @@
+package fr.neamar.aloneindarkness.render;
+
+import org.junit.Test;
+
+import fr.neamar.aloneindarkness.entity.ZombieLoader;
+import fr.neamar.aloneindarkness.gl.RecordingGl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * How many draw calls a frame costs, counted by a {@link RecordingGl}.
+ */
+public class DrawCallTest {
+    private static final int ZOMBIES = 50;
+
+    @Test
+    public void instancedZombiesAreOneDrawPerMesh() {
+        RecordingGl gl = new RecordingGl(TestScene.ES3);
+        TestScene scene = new TestScene(gl, true);
+
+        scene.setZombies(ZOMBIES, 0);
+        gl.resetCounters();
+        scene.submit();
+        scene.queue.flush(gl);
+        // Zombies, grid lines and floor
+        assertEquals(3, gl.drawCalls);
+        assertEquals(1, gl.instancedDrawCalls);
+        assertEquals(ZOMBIES, gl.instancesDrawn);
+
+        scene.setZombies(ZOMBIES, 10);
+        gl.resetCounters();
+        scene.submit();
+        scene.queue.flush(gl);
+        // One more for the far tier mesh
+        assertEquals(4, gl.drawCalls);
+        assertEquals(2, gl.instancedDrawCalls);
+        assertEquals(ZOMBIES, gl.instancesDrawn);
+    }
+
+    @Test
+    public void batchedZombiesAreOneDrawPerBatch() {
+        RecordingGl gl = new RecordingGl(TestScene.ES2);
+        TestScene scene = new TestScene(gl, true);
+
+        scene.setZombies(ZOMBIES, 0);
+        gl.resetCounters();
+        scene.submit();
+        scene.queue.flush(gl);
+        int batches = (ZOMBIES + ZombieLoader.BATCH_SIZE - 1) / ZombieLoader.BATCH_SIZE;
+        assertEquals(batches + 2, gl.drawCalls);
+        assertEquals(0, gl.instancedDrawCalls);
+    }
+
+    @Test
+    public void gridIsDrawnByTheShaderWithoutWideLines() {
+        RecordingGl gl = new RecordingGl(TestScene.ES3);
+        gl.maxLineWidth = 1;
+        TestScene scene = new TestScene(gl, true);
+        assertFalse(scene.floorRenderer.isDrawingLines());
+
+        scene.setZombies(0, 0);
+        gl.resetCounters();
+        scene.submit();
+        scene.queue.flush(gl);
+        assertEquals(1, gl.drawCalls);
+    }
+
+    @Test
+    public void shaderGridIsDrawnWithTheFloor() {
+        RecordingGl gl = new RecordingGl(TestScene.ES3);
+        TestScene scene = new TestScene(gl, false);
+
+        scene.setZombies(0, 0);
+        gl.resetCounters();
+        scene.submit();
+        scene.queue.flush(gl);
+        assertEquals(1, gl.drawCalls);
+    }
+}
@@ -0,0 +1,339 @@
+package fr.neamar.aloneindarkness.render;
+
+import org.junit.Test;
+
+import fr.neamar.aloneindarkness.math.Mat4;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the line floor looks like the shader floor, on a small software rasterizer.
+ * <p/>
+ * <p>For a few head orientations, the shader floor is rendered by evaluating grid_fragment.shader
+ * for every pixel, and the line floor by rasterizing the {@link FloorGrid} lines with the color
+ * grid_line_vertex.shader gives their vertices, over the plain floor. Both images
+ * are in gray levels from 0 to 1: the floor is black, so are the faded lines.
+ * <p/>
+ * <p>Only the grid is compared, the floor is the same in both. Images are compared by blocks of
+ * {@link #BLOCK_SIZE} pixels, a line a pixel off is the same line, over the blocks where either
+ * image has a line. Lines must be as bright as the shader's overall, and close to them block by
+ * block.
+ * <p/>
+ * <p>The shader aliases: a band thinner than a pixel lights up a whole row of pixels or none,
+ * depending on where it falls. It is evaluated on several points of each pixel, so the lines are
+ * compared with what it looks like on average.
+ */
+public class FloorComparisonTest {
+    // Same as DarknessActivity and Game
+    private static final float Z_NEAR = 0.1f;
+    private static final float Z_FAR = 100.0f;
+    private static final float CAMERA_Z = 0.01f;
+    private static final float FLOOR_DEPTH = 20f;
+    private static final float FIELD_OF_VIEW = (float) Math.toRadians(90);
+    private static final float CLEAR_COLOR = 0.1f;
+    private static final float FLOOR_COLOR = 0f;
+
+    // Eye buffer
+    private static final int SIZE = 1024;
+    private static final int LINE_WIDTH = (int) FloorGrid.LINE_WIDTH_PIXELS;
+
+    // Head orientations, yaw and pitch in degrees
+    private static final float[][] ORIENTATIONS = {{0, 0}, {30, 20}, {-60, 45}, {10, 70}};
+
+    // Shader evaluations per pixel, along each axis
+    private static final int SAMPLES = 4;
+
+    // Size of the blocks of pixels compared
+    private static final int BLOCK_SIZE = 8;
+
+    // Total brightness of the lines over the shader's
+    private static final double MIN_BRIGHTNESS = 0.9;
+    private static final double MAX_BRIGHTNESS = 1.1;
+    // Differences over the blocks with a line, in gray levels. The worst blocks are right below
+    // the player, on the edges of diagonal lines: their staircase is not the shader's.
+    private static final double MAX_MEAN_ERROR = 0.03;
+    private static final double MAX_ERROR = 0.3;
+
+    private final Mesh grid = FloorGrid.lines(new float[]{FLOOR_COLOR, FLOOR_COLOR, FLOOR_COLOR, 1});
+
+    // Uniform of grid_line_vertex.shader
+    private float lineScale;
+
+    private final float[] view = new float[16];
+    private final float[] model = new float[16];
+    private final float[] perspective = new float[16];
+    private final float[] modelView = new float[16];
+    private final float[] modelViewProjection = new float[16];
+
+    // Camera basis in world space: right, up, and backward
+    private final float[] basis = new float[9];
+
+    // Where the latest ray hit the floor
+    private float worldX;
+    private float worldZ;
+    private float eyeDepth;
+
+    private final float[] floorImage = new float[SIZE * SIZE];
+    private final float[] shaderImage = new float[SIZE * SIZE];
+    private final float[] linesImage = new float[SIZE * SIZE];
+
+    public FloorComparisonTest() {
+        // As Eye.getFov().toPerspectiveMatrix() for a symmetric field of view
+        float f = 1 / (float) Math.tan(FIELD_OF_VIEW / 2);
+        perspective[0] = f;
+        perspective[5] = f;
+        perspective[10] = -(Z_FAR + Z_NEAR) / (Z_FAR - Z_NEAR);
+        perspective[11] = -1;
+        perspective[14] = -2 * Z_FAR * Z_NEAR / (Z_FAR - Z_NEAR);
+
+        Mat4.setTranslation(model, 0, 0, -FLOOR_DEPTH, 0);
+    }
+
+    @Test
+    public void linesLookLikeTheShader() {
+        lineScale = FloorRenderer.lineScale(perspective, SIZE);
+
+        for (float[] orientation : ORIENTATIONS) {
+            look((float) Math.toRadians(orientation[0]), (float) Math.toRadians(orientation[1]));
+            renderShader();
+            renderLines();
+
+            double totalError = 0;
+            double maxError = 0;
+            int lineBlocks = 0;
+            double shaderBrightness = 0;
+            double linesBrightness = 0;
+            int blocks = SIZE / BLOCK_SIZE;
+            for (int by = 0; by < blocks; by++) {
+                for (int bx = 0; bx < blocks; bx++) {
+                    double shader = 0;
+                    double lines = 0;
+                    for (int y = by * BLOCK_SIZE; y < (by + 1) * BLOCK_SIZE; y++) {
+                        for (int x = bx * BLOCK_SIZE; x < (bx + 1) * BLOCK_SIZE; x++) {
+                            shader += shaderImage[y * SIZE + x] - floorImage[y * SIZE + x];
+                            lines += linesImage[y * SIZE + x] - floorImage[y * SIZE + x];
+                        }
+                    }
+                    if (shader == 0 && lines == 0) {
+                        // No line in either image
+                        continue;
+                    }
+                    shader /= BLOCK_SIZE * BLOCK_SIZE;
+                    lines /= BLOCK_SIZE * BLOCK_SIZE;
+                    double error = Math.abs(shader - lines);
+                    totalError += error;
+                    maxError = Math.max(maxError, error);
+                    lineBlocks++;
+                    shaderBrightness += shader;
+                    linesBrightness += lines;
+                }
+            }
+            double meanError = totalError / lineBlocks;
+            double brightness = linesBrightness / shaderBrightness;
+
+            String result = String.format("yaw %.0f pitch %.0f: mean error %.4f, max error %.3f on %d blocks, lines brightness %.2f of the shader's",
+                    orientation[0], orientation[1], meanError, maxError, lineBlocks, brightness);
+            assertTrue(result, brightness >= MIN_BRIGHTNESS && brightness <= MAX_BRIGHTNESS);
+            assertTrue(result, meanError <= MAX_MEAN_ERROR);
+            assertTrue(result, maxError <= MAX_ERROR);
+        }
+    }
+
+    private void look(float yaw, float pitch) {
+        float x = (float) (Math.sin(yaw) * Math.cos(pitch));
+        float y = (float) -Math.sin(pitch);
+        float z = (float) (-Math.cos(yaw) * Math.cos(pitch));
+        Mat4.setLookAt(view, 0, 0, 0, CAMERA_Z, x, y, CAMERA_Z + z, 0, 1, 0);
+        Mat4.modelViewProjection(modelViewProjection, 0, modelView, 0, perspective, 0, view, 0, model, 0);
+
+        // Rows of the rotation part of the view matrix
+        for (int row = 0; row < 3; row++) {
+            basis[row * 3] = view[row];
+            basis[row * 3 + 1] = view[4 + row];
+            basis[row * 3 + 2] = view[8 + row];
+        }
+    }
+
+    /**
+     * Evaluate grid_fragment.shader on {@link #SAMPLES} x {@link #SAMPLES} points of every pixel,
+     * and average them. The floor and depth buffers of the line floor are filled along the way,
+     * from the center of the pixels, they are the same.
+     */
+    private void renderShader() {
+        for (int py = 0; py < SIZE; py++) {
+            for (int px = 0; px < SIZE; px++) {
+                int pixel = py * SIZE + px;
+                float background = onFloor(px + 0.5f, py + 0.5f) ? FLOOR_COLOR : CLEAR_COLOR;
+                floorImage[pixel] = background;
+                linesImage[pixel] = background;
+
+                // Summed over the background, so pixels without a line are exactly the background
+                float lines = 0;
+                for (int sy = 0; sy < SAMPLES; sy++) {
+                    for (int sx = 0; sx < SAMPLES; sx++) {
+                        float x = px + (sx + 0.5f) / SAMPLES;
+                        float y = py + (sy + 0.5f) / SAMPLES;
+                        if (onFloor(x, y)) {
+                            lines += shade() - background;
+                        }
+                    }
+                }
+                shaderImage[pixel] = background + lines / (SAMPLES * SAMPLES);
+            }
+        }
+    }
+
+    /**
+     * Cast a ray through this point of the window, to the floor.
+     *
+     * @return whether the floor is there: {@link #worldX}, {@link #worldZ} and {@link #eyeDepth}
+     * are then set.
+     */
+    private boolean onFloor(float windowX, float windowY) {
+        float f = perspective[0];
+        float ndcX = windowX / SIZE * 2 - 1;
+        float ndcY = 1 - windowY / SIZE * 2;
+
+        // Ray (ndcX / f, ndcY / f, -1) in eye space, to world space
+        float ex = ndcX / f;
+        float ey = ndcY / f;
+        float dy = basis[1] * ex + basis[4] * ey - basis[7];
+        float t = dy < 0 ? -FLOOR_DEPTH / dy : Float.POSITIVE_INFINITY;
+        worldX = (basis[0] * ex + basis[3] * ey - basis[6]) * t;
+        worldZ = CAMERA_Z + (basis[2] * ex + basis[5] * ey - basis[8]) * t;
+        // t is also the eye space depth, as the ray has z = -1
+        eyeDepth = t;
+
+        return t <= Z_FAR && Math.abs(worldX) <= FloorGrid.EXTENT && Math.abs(worldZ) <= FloorGrid.EXTENT;
+    }
+
+    // grid_fragment.shader, where onFloor() hit the floor
+    private float shade() {
+        // gl_FragCoord.z / gl_FragCoord.w
+        float clipZ = perspective[10] * -eyeDepth + perspective[14];
+        float depth = 0.5f * (clipZ + eyeDepth);
+        boolean onLine = FloorGrid.isOnLine(worldX) || FloorGrid.isOnLine(worldZ);
+        return onLine ? FloorGrid.fade(depth, FLOOR_COLOR) : FLOOR_COLOR;
+    }
+
+    /**
+     * Rasterize the grid lines over the floor, as GL_LINES {@link FloorGrid#LINE_WIDTH_PIXELS} wide.
+     */
+    private void renderLines() {
+        float[] start = new float[4];
+        float[] end = new float[4];
+        for (int i = 0; i < grid.indexCount; i += 2) {
+            transform(grid.indices[i], start);
+            transform(grid.indices[i + 1], end);
+            drawSegment(start, color(grid.indices[i]), end, color(grid.indices[i + 1]));
+        }
+    }
+
+    // Clip space position of a vertex
+    private void transform(int vertex, float[] result) {
+        int v = vertex * Mesh.VERTEX_SIZE;
+        Mat4.transformPoint(result, 0, modelViewProjection, 0, grid.vertices[v], grid.vertices[v + 1], grid.vertices[v + 2]);
+    }
+
+    /**
+     * grid_line_vertex.shader: the fade from the depth of the vertex, over the floor by as much
+     * as the band of the shader covers of the line.
+     */
+    private float color(int vertex) {
+        int v = vertex * Mesh.VERTEX_SIZE;
+        float[] position = {grid.vertices[v], grid.vertices[v + 1], grid.vertices[v + 2], 1};
+        float acrossX = grid.vertices[v + Mesh.POSITION_SIZE];
+        float acrossZ = grid.vertices[v + Mesh.POSITION_SIZE + 2];
+        float[] across = {acrossX, 0, acrossZ, 0};
+        float[] along = {-acrossZ, 0, acrossX, 0};
+
+        float[] clip = new float[4];
+        Mat4.transform(clip, 0, modelViewProjection, 0, position, 0);
+        float depth = 0.5f * (clip[2] + clip[3]);
+
+        float[] eye = new float[4];
+        float[] eyeAcross = new float[4];
+        float[] eyeAlong = new float[4];
+        Mat4.transform(eye, 0, modelView, 0, position, 0);
+        Mat4.transform(eyeAcross, 0, modelView, 0, across, 0);
+        Mat4.transform(eyeAlong, 0, modelView, 0, along, 0);
+
+        // Screen space derivatives of x / -z and y / -z
+        float w = Math.max(-eye[2], Z_NEAR);
+        float ax = (eyeAcross[0] * w + eye[0] * eyeAcross[2]) / (w * w);
+        float ay = (eyeAcross[1] * w + eye[1] * eyeAcross[2]) / (w * w);
+        float bx = (eyeAlong[0] * w + eye[0] * eyeAlong[2]) / (w * w);
+        float by = (eyeAlong[1] * w + eye[1] * eyeAlong[2]) / (w * w);
+        // Wide lines are widened along the minor axis of the screen, so is the band measured
+        float minorLength = Math.max(Math.max(Math.abs(bx), Math.abs(by)), 1e-6f);
+        float coverage = Math.min(2f, FloorGrid.LINE_WIDTH * lineScale * Math.abs(ax * by - ay * bx) / minorLength);
+
+        return FLOOR_COLOR + coverage * (FloorGrid.fade(depth, FLOOR_COLOR) - FLOOR_COLOR);
+    }
+
+    private void drawSegment(float[] a, float colorA, float[] b, float colorB) {
+        // Clip against the near and far planes: -w <= z <= w
+        float t0 = 0;
+        float t1 = 1;
+        float[] distances = {a[3] + a[2], b[3] + b[2], a[3] - a[2], b[3] - b[2]};
+        for (int plane = 0; plane < 4; plane += 2) {
+            float da = distances[plane];
+            float db = distances[plane + 1];
+            if (da < 0 && db < 0) {
+                return;
+            }
+            if (da < 0) {
+                t0 = Math.max(t0, da / (da - db));
+            } else if (db < 0) {
+                t1 = Math.min(t1, da / (da - db));
+            }
+        }
+        if (t0 >= t1) {
+            return;
+        }
+
+        float[] from = lerp(a, b, t0);
+        float[] to = lerp(a, b, t1);
+
+        // Window coordinates, and what's interpolated with perspective correction: color / w and 1 / w
+        float x0 = (from[0] / from[3] + 1) / 2 * SIZE;
+        float y0 = (1 - from[1] / from[3]) / 2 * SIZE;
+        float x1 = (to[0] / to[3] + 1) / 2 * SIZE;
+        float y1 = (1 - to[1] / to[3]) / 2 * SIZE;
+        float c0 = (colorA + t0 * (colorB - colorA)) / from[3];
+        float c1 = (colorA + t1 * (colorB - colorA)) / to[3];
+        float q0 = 1 / from[3];
+        float q1 = 1 / to[3];
+
+        boolean xMajor = Math.abs(x1 - x0) >= Math.abs(y1 - y0);
+        float major0 = xMajor ? x0 : y0;
+        float major1 = xMajor ? x1 : y1;
+        float minor0 = xMajor ? y0 : x0;
+        float minor1 = xMajor ? y1 : x1;
+        if (major1 == major0) {
+            return;
+        }
+
+        // One fragment per pixel center crossed along the major axis
+        int first = (int) Math.ceil(Math.min(major0, major1) - 0.5f);
+        int last = (int) Math.ceil(Math.max(major0, major1) - 0.5f) - 1;
+        for (int m = Math.max(first, 0); m <= Math.min(last, SIZE - 1); m++) {
+            float s = (m + 0.5f - major0) / (major1 - major0);
+            // Clamped, as written to the color buffer
+            float color = Math.min(1f, (c0 + s * (c1 - c0)) / (q0 + s * (q1 - q0)));
+            // Wide lines are LINE_WIDTH_PIXELS fragments across the minor axis
+            int n0 = (int) Math.floor(minor0 + s * (minor1 - minor0) - (LINE_WIDTH - 1) / 2f);
+            for (int n = Math.max(n0, 0); n < Math.min(n0 + LINE_WIDTH, SIZE); n++) {
+                linesImage[xMajor ? n * SIZE + m : m * SIZE + n] = color;
+            }
+        }
+    }
+
+    private static float[] lerp(float[] a, float[] b, float t) {
+        float[] result = new float[4];
+        for (int i = 0; i < 4; i++) {
+            result[i] = a[i] + t * (b[i] - a[i]);
+        }
+        return result;
+    }
+}
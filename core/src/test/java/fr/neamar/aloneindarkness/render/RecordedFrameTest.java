@@ -0,0 +1,101 @@
+package fr.neamar.aloneindarkness.render;
+
+import org.junit.Test;
+
+import fr.neamar.aloneindarkness.gl.CommandBuffer;
+import fr.neamar.aloneindarkness.gl.Gl;
+import fr.neamar.aloneindarkness.gl.RecordingGl;
+import fr.neamar.aloneindarkness.math.Mat4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A frame recorded once into a {@link CommandBuffer} and replayed for each eye draws the same as
+ * the frame submitted directly for that eye.
+ */
+public class RecordedFrameTest {
+    private static final int ZOMBIES = 50;
+    // Moves the second eye, as the inter pupillary distance would
+    private static final float EYE_OFFSET = 0.06f;
+
+    @Test
+    public void instancedFrameReplaysAsSubmitted() {
+        replaysAsSubmitted(TestScene.ES3);
+    }
+
+    @Test
+    public void batchedFrameReplaysAsSubmitted() {
+        replaysAsSubmitted(TestScene.ES2);
+    }
+
+    private void replaysAsSubmitted(String version) {
+        RecordingGl gl = new RecordingGl(version);
+        TestScene scene = new TestScene(gl, true);
+        scene.setZombies(ZOMBIES, 10);
+
+        CommandBuffer commands = track(scene);
+        scene.submit();
+        scene.queue.flush(commands);
+
+        for (int eye = 0; eye < 2; eye++) {
+            if (eye == 1) {
+                moveEye(scene);
+            }
+
+            gl.log = new StringBuilder();
+            commands.replay(gl);
+            String replayed = gl.log.toString();
+
+            // Instances are uploaded when submitted, not when drawn
+            scene.submit();
+            gl.log = new StringBuilder();
+            scene.queue.flush(gl);
+            String submitted = gl.log.toString();
+
+            assertTrue(submitted.contains("glDraw"));
+            assertEquals("Eye " + eye, submitted, replayed);
+        }
+    }
+
+    @Test
+    public void errorsAreCheckedWhenReplayed() {
+        RecordingGl gl = new RecordingGl(TestScene.ES3);
+        TestScene scene = new TestScene(gl, true);
+        scene.setZombies(ZOMBIES, 0);
+
+        CommandBuffer commands = track(scene);
+        scene.submit();
+        gl.raiseError(Gl.GL_NO_ERROR + 1);
+        // Nothing is drawn yet, the error can't be from the frame
+        scene.queue.flush(commands);
+
+        try {
+            commands.replay(gl);
+            fail("The error went unchecked");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Drawing zombies"));
+        }
+    }
+
+    // What differs between the eyes, as DarknessActivity tracks it
+    private static CommandBuffer track(TestScene scene) {
+        CommandBuffer commands = new CommandBuffer(64, 64);
+        commands.track(scene.view);
+        commands.track(scene.perspective);
+        commands.track(scene.lightPosInEyeSpace);
+        commands.track(scene.modelView);
+        commands.track(scene.modelViewProjection);
+        return commands;
+    }
+
+    private static void moveEye(TestScene scene) {
+        float[] eyeView = new float[16];
+        Mat4.setTranslation(eyeView, 0, -EYE_OFFSET, 0f, 0f);
+        float[] view = scene.view.clone();
+        Mat4.multiply(scene.view, 0, eyeView, 0, view, 0);
+        scene.lightPosInEyeSpace[0] -= EYE_OFFSET;
+        Mat4.modelViewProjection(scene.modelViewProjection, 0, scene.modelView, 0, scene.perspective, 0, scene.view, 0, scene.floorRenderer.model, 0);
+    }
+}
@@ -0,0 +1,84 @@
+package fr.neamar.aloneindarkness.render;
+
+import fr.neamar.aloneindarkness.entity.LevelOfDetail;
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.entity.ZombieLoader;
+import fr.neamar.aloneindarkness.gl.Gl;
+import fr.neamar.aloneindarkness.gl.GlChecker;
+import fr.neamar.aloneindarkness.gl.ProgramCache;
+import fr.neamar.aloneindarkness.math.Mat4;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+/**
+ * The floor and the zombies of a frame, submitted as DarknessActivity does for an eye looking
+ * straight ahead.
+ */
+class TestScene {
+    static final String ES3 = "OpenGL ES 3.0";
+    static final String ES2 = "OpenGL ES 2.0";
+
+    static final int CAPACITY = 256;
+    // Zombies are lined up this far in front of the eye, in the near tier
+    static final float ZOMBIE_DISTANCE = 3f;
+
+    final ZombieLoader zombieLoader;
+    final FloorRenderer floorRenderer;
+    final RenderQueue queue = new RenderQueue(1 + LevelOfDetail.MESH_COUNT + CAPACITY / ZombieLoader.BATCH_SIZE);
+
+    final float[] view = new float[16];
+    final float[] perspective = new float[16];
+    final float[] modelView = new float[16];
+    final float[] modelViewProjection = new float[16];
+    final float[] lightPosInEyeSpace = {0f, 2f, 0f, 1f};
+
+    private final FrameState frame = new FrameState(CAPACITY);
+
+    /**
+     * @param gl whose version tells whether zombies are instanced
+     */
+    TestScene(Gl gl, boolean floorLines) {
+        GlChecker glChecker = new GlChecker(gl, GlChecker.MODE_TRACING, 1);
+        ProgramCache programs = new ProgramCache(gl, null);
+        programs.onContextCreated();
+
+        zombieLoader = new ZombieLoader(CAPACITY, gl, glChecker);
+        zombieLoader.onSurfaceCreated(programs, "passthrough_fragment", "instanced_vertex", "batched_vertex");
+        floorRenderer = new FloorRenderer(floorLines, glChecker);
+        floorRenderer.onSurfaceCreated(gl, programs, "light_vertex", "grid_fragment", "grid_line_vertex", "passthrough_fragment");
+
+        Mat4.setLookAt(view, 0, 0f, 0f, 0.01f, 0f, 0f, 0f, 0f, 1f, 0f);
+        float f = 1f;
+        perspective[0] = f;
+        perspective[5] = f;
+        perspective[10] = -100.1f / 99.9f;
+        perspective[11] = -1;
+        perspective[14] = -20f / 99.9f;
+        Mat4.modelViewProjection(modelViewProjection, 0, modelView, 0, perspective, 0, view, 0, floorRenderer.model, 0);
+    }
+
+    /**
+     * Line zombies up in front of the eye, the first one looked at.
+     *
+     * @param farZombies how many of them use the far tier mesh, the others the near one
+     */
+    void setZombies(int count, int farZombies) {
+        frame.zombieCount = count;
+        frame.lookedAtZombie = count > 0 ? 0 : -1;
+        for (int i = 0; i < count; i++) {
+            float x = count == 1 ? 0f : -1f + 2f * i / (count - 1);
+            Mat4.setTranslation(frame.zombieModels, i * ZombieHorde.MATRIX_STRIDE, x, 0f, -ZOMBIE_DISTANCE);
+            frame.zombieTiers[i] = i < farZombies ? LevelOfDetail.FAR : LevelOfDetail.NEAR;
+        }
+        zombieLoader.onFrameReady(frame);
+    }
+
+    /**
+     * Cull and queue the zombies and the floor, as recordFrame() does.
+     */
+    void submit() {
+        zombieLoader.cull(perspective, view, 0f);
+        zombieLoader.submitZombies(queue, view, perspective, lightPosInEyeSpace);
+        floorRenderer.setEye(modelView, modelViewProjection, lightPosInEyeSpace);
+        queue.submit(floorRenderer, FloorRenderer.PROGRAM_RANK, 0, 20f, 0);
+    }
+}
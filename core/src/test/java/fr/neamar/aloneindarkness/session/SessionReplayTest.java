@@ -0,0 +1,154 @@
+package fr.neamar.aloneindarkness.session;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import fr.neamar.aloneindarkness.entity.ZombieHorde;
+import fr.neamar.aloneindarkness.game.Game;
+import fr.neamar.aloneindarkness.headless.HeadlessAudio;
+import fr.neamar.aloneindarkness.headless.HeadlessRenderer;
+import fr.neamar.aloneindarkness.math.Mat4;
+import fr.neamar.aloneindarkness.sim.FrameState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A recorded session must always replay to the state the recorded game ended in.
+ * <p/>
+ * <p>As in HeadlessDriver, a scripted player turns around, shoots the zombie in sight and looks
+ * down to reload, but only after pulling the trigger on an empty magazine a few times: those
+ * triggers are recorded too. Several ticks run between frames, as with a simulation thread.
+ */
+public class SessionReplayTest {
+    private static final long SEED = 42;
+    private static final int ZOMBIES = 50;
+    private static final int TICKS_PER_SECOND = 90;
+    private static final int FRAMES = 3000;
+    private static final int SHOT_INTERVAL_FRAMES = 8;
+    private static final int EMPTY_TRIGGERS = 3;
+
+    private int emptyTriggers = 0;
+
+    @Test
+    public void replaysEndInTheRecordedState() throws IOException {
+        ByteArrayOutputStream recording = new ByteArrayOutputStream();
+        String recorded = record(recording);
+        assertTrue("The recording must pull the trigger on an empty magazine", emptyTriggers > 0);
+
+        String first = replay(recording.toByteArray());
+        String second = replay(recording.toByteArray());
+
+        assertEquals("Two replays", first, second);
+        assertEquals("Replay and recording", recorded, first);
+    }
+
+    private String record(ByteArrayOutputStream out) throws IOException {
+        HeadlessAudio audio = new HeadlessAudio();
+        Game game = newGame(ZOMBIES, audio, SEED);
+        SessionRecorder recorder = new SessionRecorder(out, SEED, ZOMBIES, TICKS_PER_SECOND);
+
+        float yaw = 0f;
+        boolean reloading = false;
+        int emptyTriggersLeft = EMPTY_TRIGGERS;
+        int lastShotFrame = -SHOT_INTERVAL_FRAMES;
+        for (int i = 0; i < FRAMES && !game.isPlayerDead(); i++) {
+            // One to three ticks per frame
+            for (int t = 0; t <= i % 3 && !game.isPlayerDead(); t++) {
+                audio.advance();
+                game.tick();
+            }
+            if (game.isPlayerDead()) {
+                break;
+            }
+
+            if (game.getBulletsLeft() == 0 && emptyTriggersLeft == 0) {
+                reloading = true;
+            } else if (game.getBulletsLeft() == Game.MAGAZINE_SIZE) {
+                reloading = false;
+                emptyTriggersLeft = EMPTY_TRIGGERS;
+            }
+
+            FrameState frame = game.frameStates.beginFrame();
+            float pitch = reloading ? Game.PITCH_LIMIT + 0.1f : 0f;
+            float horizontal = (float) Math.cos(pitch);
+            Mat4.setLookAt(frame.headView, 0, 0f, 0f, 0f, (float) Math.cos(yaw) * horizontal, (float) -Math.sin(pitch),
+                    (float) Math.sin(yaw) * horizontal, 0f, 1f, 0f);
+            frame.reloadPlaying = audio.isReloadPlaying();
+            float interpolation = (i % 4) / 4f;
+            game.onNewFrame(frame, interpolation);
+            recorder.recordFrame(frame, interpolation);
+
+            if (reloading) {
+                continue;
+            }
+            if (frame.lookedAtZombie == -1 && game.getBulletsLeft() > 0) {
+                yaw += 0.05f;
+            } else if (i - lastShotFrame >= SHOT_INTERVAL_FRAMES) {
+                lastShotFrame = i;
+                // The simulation may tick between the frame and the trigger
+                if (i % 2 == 0) {
+                    game.tick();
+                }
+                if (!game.trigger()) {
+                    emptyTriggers++;
+                    emptyTriggersLeft--;
+                }
+                recorder.recordTrigger(game.getLastTriggerTick());
+            }
+        }
+        recorder.close();
+        return state(game, audio);
+    }
+
+    private static String replay(byte[] recording) throws IOException {
+        SessionPlayer player = new SessionPlayer(new ByteArrayInputStream(recording));
+        HeadlessAudio audio = new HeadlessAudio();
+        Game game = newGame(player.maxZombies, audio, player.seed);
+        SessionReplay replay = new SessionReplay(player, game);
+
+        while (!game.isPlayerDead()) {
+            FrameState frame = game.frameStates.beginFrame();
+            if (!replay.nextFrame(frame)) {
+                break;
+            }
+            game.onNewFrame(frame, replay.interpolation);
+        }
+        player.close();
+        return state(game, audio);
+    }
+
+    private static Game newGame(int zombies, HeadlessAudio audio, long seed) {
+        return new Game(zombies, audio, new HeadlessRenderer(), new Game.Listener() {
+            @Override
+            public void onZombieKilled() {
+            }
+
+            @Override
+            public void onPlayerDead() {
+            }
+        }, new Random(seed));
+    }
+
+    // Everything the game ended in, as HeadlessDriver prints it
+    private static String state(Game game, HeadlessAudio audio) {
+        StringBuilder state = new StringBuilder();
+        state.append("tick ").append(game.getTickCount())
+                .append(", kills ").append(audio.zombieDeaths)
+                .append(", shots ").append(audio.shots)
+                .append(", bullets ").append(game.getBulletsLeft())
+                .append(", reloading ").append(game.isReloading())
+                .append(", player ").append(game.isPlayerDead() ? "dead" : "alive");
+        synchronized (game.horde) {
+            state.append(", zombies ").append(game.horde.size()).append(':');
+            for (int i = 0; i < game.horde.size() * ZombieHorde.POSITION_STRIDE; i++) {
+                state.append(' ').append(game.horde.positions[i]);
+            }
+        }
+        return state.toString();
+    }
+}